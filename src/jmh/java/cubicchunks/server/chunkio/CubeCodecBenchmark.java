@@ -0,0 +1,177 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares the binary cube format with NBT, using each of the compression codecs. Encoded sizes of both formats are
+ * printed in setup.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class CubeCodecBenchmark {
+
+    private static final int BLOCK_COUNT = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+
+    /**
+     * air - empty cube above the surface, stone - uniform cube underground, terrain - surface cube with a few different
+     * blocks and varying light, noise - worst case with random blocks and light
+     */
+    @Param({"air", "stone", "terrain", "noise"})
+    public String cubeType;
+
+    @Param({"gzip", "none", "deflate1", "deflate6", "lz4"})
+    public String codecName;
+
+    private ICompressionCodec codec;
+    private CubeSnapshot snapshot;
+    private byte[] nbtBytes;
+    private byte[] binaryBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Bootstrap.register();
+        codec = codecName.equals("gzip") ? CompressionCodecs.GZIP
+                : codecName.equals("none") ? CompressionCodecs.NONE
+                : codecName.equals("lz4") ? CompressionCodecs.LZ4
+                : CompressionCodecs.deflate(Integer.parseInt(codecName.substring("deflate".length())));
+        snapshot = createSnapshot(cubeType, new Random(42));
+        nbtBytes = encodeNbt();
+        binaryBytes = encodeBinary();
+        System.out.printf("%n[%s, %s] NBT: %d bytes, binary: %d bytes%n", cubeType, codecName, nbtBytes.length, binaryBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeNbt() throws IOException {
+        NBTTagCompound root = new NBTTagCompound();
+        root.setTag("Level", IONbtWriter.writeLevel(snapshot));
+        return codec.compress(IONbtWriter.writeUncompressedNbtBytes(root));
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws IOException {
+        return codec.compress(CubeBinaryCodec.encode(snapshot, 0, new NBTTagCompound()));
+    }
+
+    @Benchmark
+    public ExtendedBlockStorage decodeNbt() throws IOException {
+        return decodeNbt(nbtBytes);
+    }
+
+    /**
+     * Decompresses and reads the NBT, then reads blocks and light the same way as IONbtReader.readBlocks
+     */
+    static ExtendedBlockStorage decodeNbt(byte[] entry) throws IOException {
+        byte[] data = CompressionCodecs.decompress(entry);
+        NBTTagCompound level = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(data))).getCompoundTag("Level");
+        NBTTagList sectionList = level.getTagList("Sections", 10);
+        NBTTagCompound nbt = sectionList.getCompoundTagAt(0);
+        ExtendedBlockStorage ebs = new ExtendedBlockStorage(0, true);
+        byte[] abyte = nbt.getByteArray("Blocks");
+        NibbleArray blockData = new NibbleArray(nbt.getByteArray("Data"));
+        NibbleArray add = nbt.hasKey("Add", 7) ? new NibbleArray(nbt.getByteArray("Add")) : null;
+        ebs.getData().setDataFromNBT(abyte, blockData, add);
+        ebs.setBlockLight(new NibbleArray(nbt.getByteArray("BlockLight")));
+        ebs.setSkyLight(new NibbleArray(nbt.getByteArray("SkyLight")));
+        ebs.recalculateRefCounts();
+        return ebs;
+    }
+
+    @Benchmark
+    public ExtendedBlockStorage decodeBinary() throws IOException {
+        return CubeBinaryCodec.decode(CompressionCodecs.decompress(binaryBytes), true).storage;
+    }
+
+    static CubeSnapshot createSnapshot(String type, Random rand) {
+        IBlockState[] blocks = new IBlockState[BLOCK_COUNT];
+        byte[] blockLight = new byte[BLOCK_COUNT / 2];
+        byte[] skyLight = new byte[BLOCK_COUNT / 2];
+        IBlockState[] terrain = {
+                Blocks.AIR.getDefaultState(), Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState(),
+                Blocks.GRASS.getDefaultState(), Blocks.COAL_ORE.getDefaultState(), Blocks.WATER.getDefaultState()
+        };
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            int y = i >> 8;
+            switch (type) {
+                case "air":
+                    blocks[i] = Blocks.AIR.getDefaultState();
+                    break;
+                case "stone":
+                    blocks[i] = Blocks.STONE.getDefaultState();
+                    break;
+                case "terrain":
+                    blocks[i] = y < 8 ? (rand.nextInt(50) == 0 ? terrain[4] : terrain[1]) : y < 11 ? terrain[2] : y == 11 ? terrain[3] : terrain[0];
+                    break;
+                default:
+                    blocks[i] = terrain[rand.nextInt(terrain.length)];
+                    break;
+            }
+        }
+        switch (type) {
+            case "air":
+                Arrays.fill(skyLight, (byte) 0xFF);
+                break;
+            case "stone":
+                break;
+            default:
+                rand.nextBytes(blockLight);
+                rand.nextBytes(skyLight);
+                break;
+        }
+        int[] heightMap = new int[Cube.SIZE * Cube.SIZE];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = 64 + rand.nextInt(4);
+        }
+        NBTTagCompound level = new NBTTagCompound();
+        level.setTag("Entities", new NBTTagList());
+        level.setTag("TileEntities", new NBTTagList());
+        level.setTag("TileTicks", new NBTTagList());
+        return new CubeSnapshot(0, 0, 0, true, true, true, true, blocks, blockLight, skyLight, heightMap, (byte) 0, level);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.NBTTagCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Measures how cube load throughput scales with the number of cube IO threads. Each invocation decompresses and reads
+ * a batch of GZIP compressed NBT cubes, the default save format, split between the threads.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Benchmark)
+public class CubeLoadThreadsBenchmark {
+
+    private static final int CUBES = 1024;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ExecutorService executor;
+    private byte[][] entries;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Bootstrap.register();
+        executor = Executors.newFixedThreadPool(threads);
+        String[] types = {"air", "stone", "terrain", "terrain"};
+        Random rand = new Random(42);
+        entries = new byte[CUBES][];
+        for (int i = 0; i < CUBES; i++) {
+            NBTTagCompound root = new NBTTagCompound();
+            root.setTag("Level", IONbtWriter.writeLevel(CubeCodecBenchmark.createSnapshot(types[i % types.length], rand)));
+            entries[i] = CompressionCodecs.GZIP.compress(IONbtWriter.writeUncompressedNbtBytes(root));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CUBES)
+    public int loadCubes() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> futures = new ArrayList<>(CUBES);
+        for (byte[] entry : entries) {
+            futures.add(executor.submit(() -> CubeCodecBenchmark.decodeNbt(entry).isEmpty() ? 0 : 1));
+        }
+        int nonEmpty = 0;
+        for (Future<Integer> future : futures) {
+            nonEmpty += future.get();
+        }
+        return nonEmpty;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import static cubicchunks.util.Coords.blockToCube;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Measures the cube lookup done for every World.getBlockState call, with the block positions an entity or a redstone
+ * contraption would read: random blocks within a few blocks of a slowly moving point. Compares the old lookup, which
+ * allocated a CubePos for an XYZMap lookup, with a LongXYZMap lookup, and with a RecentXYZCache in front of it.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class BlockReadCubeLookupBenchmark {
+
+    private static final int READS = 4096;
+    // cubes loaded around the origin in each direction
+    private static final int LOADED_RADIUS = 12;
+    // how far from the current center blocks are read
+    private static final int READ_RADIUS = 6;
+
+    private BlockPos[] reads;
+    private XYZMap<Entry> xyzMap;
+    private LongXYZMap<Entry> longMap;
+    private RecentXYZCache<Entry> recent;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        xyzMap = new XYZMap<>(0.7f, 8000);
+        longMap = new LongXYZMap<>(0.7f, 8000);
+        recent = new RecentXYZCache<>(4);
+        for (int x = -LOADED_RADIUS; x <= LOADED_RADIUS; x++) {
+            for (int y = -LOADED_RADIUS; y <= LOADED_RADIUS; y++) {
+                for (int z = -LOADED_RADIUS; z <= LOADED_RADIUS; z++) {
+                    Entry entry = new Entry(x, y, z);
+                    xyzMap.put(entry);
+                    longMap.put(entry);
+                }
+            }
+        }
+        Random rand = new Random(42);
+        reads = new BlockPos[READS];
+        int centerX = 0, centerY = 0, centerZ = 0;
+        for (int i = 0; i < READS; i++) {
+            if (i % 64 == 0) {
+                centerX += rand.nextInt(3) - 1;
+                centerY += rand.nextInt(3) - 1;
+                centerZ += rand.nextInt(3) - 1;
+            }
+            reads[i] = new BlockPos(
+                    centerX + rand.nextInt(READ_RADIUS * 2 + 1) - READ_RADIUS,
+                    centerY + rand.nextInt(READ_RADIUS * 2 + 1) - READ_RADIUS,
+                    centerZ + rand.nextInt(READ_RADIUS * 2 + 1) - READ_RADIUS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public int xyzMapWithCubePos() {
+        int found = 0;
+        for (BlockPos pos : reads) {
+            CubePos cubePos = CubePos.fromBlockCoords(pos);
+            found += xyzMap.get(cubePos.getX(), cubePos.getY(), cubePos.getZ()).value;
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public int longXYZMap() {
+        int found = 0;
+        for (BlockPos pos : reads) {
+            found += longMap.get(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ())).value;
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public int recentCacheAndLongXYZMap() {
+        int found = 0;
+        for (BlockPos pos : reads) {
+            int cubeX = blockToCube(pos.getX());
+            int cubeY = blockToCube(pos.getY());
+            int cubeZ = blockToCube(pos.getZ());
+            Entry entry = recent.get(cubeX, cubeY, cubeZ);
+            if (entry == null || !entry.loaded) {
+                entry = getFromMap(cubeX, cubeY, cubeZ);
+                recent.put(entry);
+            }
+            found += entry.value;
+        }
+        return found;
+    }
+
+    private Entry getFromMap(int cubeX, int cubeY, int cubeZ) {
+        Entry entry = longMap.get(cubeX, cubeY, cubeZ);
+        assert entry != null;
+        return entry;
+    }
+
+    /**
+     * Stands in for a cube, with the loaded flag checked on each cache hit like {@link
+     * cubicchunks.world.cube.Cube#isCubeLoaded()}
+     */
+    private static class Entry implements XYZAddressable {
+
+        private final CubePos pos;
+        final int value;
+        volatile boolean loaded = true;
+
+        Entry(int x, int y, int z) {
+            this.pos = new CubePos(x, y, z);
+            this.value = x ^ y ^ z;
+        }
+
+        @Override public int getX() {
+            return pos.getX();
+        }
+
+        @Override public int getY() {
+            return pos.getY();
+        }
+
+        @Override public int getZ() {
+            return pos.getZ();
+        }
+    }
+}
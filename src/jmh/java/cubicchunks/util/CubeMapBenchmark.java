@@ -0,0 +1,262 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares {@link LongXYZMap} with {@link XYZMap} and {@link XZMap} for the operations done on loaded cube maps. The
+ * entries are cube positions in a box around the origin, like the cubes loaded around players. XZMap is given the same
+ * positions with y folded into z, so it holds the same number of distinct entries.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class CubeMapBenchmark {
+
+    private static final int OPERATIONS = 1024;
+
+    @Param({"LongXYZMap", "XYZMap", "XZMap"})
+    public String mapType;
+
+    @Param({"10000", "100000", "500000"})
+    public int size;
+
+    private Entry[] entries;
+    private Entry[] randomEntries;
+    private MapAdapter map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rand = new Random(42);
+        int radius = (int) Math.ceil(Math.cbrt(size) / 2);
+        List<Entry> box = new ArrayList<>();
+        for (int x = -radius; x <= radius; x++) {
+            for (int y = -radius; y <= radius; y++) {
+                for (int z = -radius; z <= radius; z++) {
+                    box.add(new Entry(x, y, z));
+                }
+            }
+        }
+        Collections.shuffle(box, rand);
+        entries = box.subList(0, size).toArray(new Entry[size]);
+        randomEntries = new Entry[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            randomEntries[i] = entries[rand.nextInt(size)];
+        }
+        map = fill();
+    }
+
+    @Benchmark
+    public MapAdapter fill() {
+        MapAdapter map = createMap();
+        for (Entry entry : entries) {
+            map.put(entry);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void get(Blackhole blackhole) {
+        for (Entry entry : randomEntries) {
+            blackhole.consume(map.get(entry));
+        }
+    }
+
+    /**
+     * Each entry is put back after removing it, so that the map keeps its size
+     */
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void removeAndPut(Blackhole blackhole) {
+        for (Entry entry : randomEntries) {
+            blackhole.consume(map.remove(entry));
+            map.put(entry);
+        }
+    }
+
+    @Benchmark
+    public int iterate() {
+        return map.sumX();
+    }
+
+    private MapAdapter createMap() {
+        switch (mapType) {
+            case "LongXYZMap": {
+                LongXYZMap<Entry> map = new LongXYZMap<>(0.7f, 8000);
+                return new MapAdapter() {
+                    @Override void put(Entry entry) {
+                        map.put(entry);
+                    }
+
+                    @Nullable @Override Object get(Entry entry) {
+                        return map.get(entry.x, entry.y, entry.z);
+                    }
+
+                    @Nullable @Override Object remove(Entry entry) {
+                        return map.remove(entry.x, entry.y, entry.z);
+                    }
+
+                    @Override int sumX() {
+                        int sum = 0;
+                        for (Entry entry : map) {
+                            sum += entry.x;
+                        }
+                        return sum;
+                    }
+                };
+            }
+            case "XYZMap": {
+                XYZMap<Entry> map = new XYZMap<>(0.7f, 8000);
+                return new MapAdapter() {
+                    @Override void put(Entry entry) {
+                        map.put(entry);
+                    }
+
+                    @Nullable @Override Object get(Entry entry) {
+                        return map.get(entry.x, entry.y, entry.z);
+                    }
+
+                    @Nullable @Override Object remove(Entry entry) {
+                        return map.remove(entry.x, entry.y, entry.z);
+                    }
+
+                    @Override int sumX() {
+                        int sum = 0;
+                        for (Entry entry : map) {
+                            sum += entry.x;
+                        }
+                        return sum;
+                    }
+                };
+            }
+            case "XZMap": {
+                XZMap<FoldedEntry> map = new XZMap<>(0.7f, 8000);
+                return new MapAdapter() {
+                    @Override void put(Entry entry) {
+                        map.put(entry.folded);
+                    }
+
+                    @Nullable @Override Object get(Entry entry) {
+                        return map.get(entry.folded.x, entry.folded.z);
+                    }
+
+                    @Nullable @Override Object remove(Entry entry) {
+                        return map.remove(entry.folded.x, entry.folded.z);
+                    }
+
+                    @Override int sumX() {
+                        int sum = 0;
+                        for (FoldedEntry entry : map) {
+                            sum += entry.x;
+                        }
+                        return sum;
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException(mapType);
+        }
+    }
+
+    /**
+     * Common interface of the compared maps, only one implementation is used in a trial
+     */
+    public abstract static class MapAdapter {
+
+        abstract void put(Entry entry);
+
+        @Nullable abstract Object get(Entry entry);
+
+        @Nullable abstract Object remove(Entry entry);
+
+        abstract int sumX();
+    }
+
+    private static class Entry implements XYZAddressable {
+
+        final int x;
+        final int y;
+        final int z;
+        final FoldedEntry folded;
+
+        Entry(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.folded = new FoldedEntry(x, z * 1024 + y);
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+
+    /**
+     * An entry with y folded into z, for XZMap
+     */
+    private static class FoldedEntry implements XZAddressable {
+
+        final int x;
+        final int z;
+
+        FoldedEntry(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
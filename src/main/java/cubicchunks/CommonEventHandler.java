@@ -33,6 +33,7 @@ import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.ICubicWorldSettings;
 import cubicchunks.world.WorldSavedCubicChunksData;
+import cubicchunks.world.column.IColumn;
 import cubicchunks.world.provider.ICubicWorldProvider;
 import cubicchunks.world.type.ICubicWorldType;
 import mcp.MethodsReturnNonnullByDefault;
@@ -45,6 +46,7 @@ import net.minecraft.world.WorldServerMulti;
 import net.minecraft.world.WorldType;
 import net.minecraft.world.chunk.IChunkProvider;
 import net.minecraft.world.gen.ChunkProviderServer;
+import net.minecraftforge.common.ForgeChunkManager;
 import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
 import net.minecraftforge.event.world.WorldEvent;
@@ -137,6 +139,19 @@ public class CommonEventHandler {
         }
     }
     
+    @SubscribeEvent
+    public void onUnforceChunk(ForgeChunkManager.UnforceChunkEvent evt) {
+        ICubicWorld world = (ICubicWorld) evt.getTicket().world;
+        if (world.isCubicWorld() && !world.isRemote()) {
+            // the garbage collector skips forced columns and their cubes, it has to check them again now
+            ICubicWorldServer worldServer = (ICubicWorldServer) world;
+            IColumn column = worldServer.getCubeCache().getLoadedColumn(evt.getLocation().x, evt.getLocation().z);
+            if (column != null) {
+                worldServer.getChunkGarbageCollector().addUnloadCandidates(column);
+            }
+        }
+    }
+
     @SubscribeEvent
     public void onCreateWorldSettings(CreateNewWorldEvent event) {
         ((ICubicWorldSettings) (Object) event.settings).setCubic(CubicChunks.Config.BoolOptions.FORCE_CUBIC_CHUNKS.getValue());
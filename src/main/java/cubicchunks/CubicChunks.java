@@ -32,6 +32,7 @@ import cubicchunks.debug.DebugWorldType;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.proxy.CommonProxy;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
+import cubicchunks.server.command.CommandSyncLoads;
 import cubicchunks.world.type.CustomCubicWorldType;
 import cubicchunks.world.type.FlatCubicWorldType;
 import cubicchunks.world.type.VanillaCubicWorldType;
@@ -90,6 +91,7 @@ import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerAboutToStartEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.network.NetworkCheckHandler;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
@@ -274,6 +276,11 @@ public class CubicChunks {
         proxy.setBuildLimit(event.getServer());
     }
 
+    @EventHandler
+    public void onServerStarting(FMLServerStartingEvent event) {
+        event.registerServerCommand(new CommandSyncLoads());
+    }
+
     @SubscribeEvent
     public static void onConfigChanged(ConfigChangedEvent.OnConfigChangedEvent eventArgs) {
         if (eventArgs.getModID().equals(CubicChunks.MODID)) {
@@ -368,7 +375,47 @@ public class CubicChunks {
             VERTICAL_CUBE_LOAD_DISTANCE(2, 32, 8, "Similar to Minecraft's view distance, only for vertical chunks."),
             CHUNK_G_C_INTERVAL(1, Integer.MAX_VALUE, 20 * 10,
                     "Chunk garbage collector update interval. A more lower it is - a more CPU load it will generate. "
-                            + "A more high it is - a more memory will be used to store cubes between launches.");
+                            + "A more high it is - a more memory will be used to store cubes between launches."),
+            CHUNK_G_C_TIME_LIMIT(1, 1000, 10,
+                    "Time in milliseconds the chunk garbage collector can use each tick. Cubes and columns it didn't get to are "
+                            + "checked in the next ticks."),
+            CUBE_UNLOAD_GRACE_PERIOD(0, Integer.MAX_VALUE, 20 * 5,
+                    "Time in ticks a cube stays loaded after nothing keeps it loaded anymore, so that it doesn't have to be saved and "
+                            + "loaded again when a player comes back soon. Cubes are still only unloaded by the chunk garbage collector, "
+                            + "so they can stay loaded for up to chunkGCInterval ticks longer."),
+            HEAP_USAGE_LIMIT(0, 100, 0,
+                    "Percentage of the maximum heap size above which cubes are unloaded more aggressively. While the heap is fuller than "
+                            + "that after a garbage collection, the chunk garbage collector runs every second, ignores the grace period "
+                            + "and unloads the cubes that were unused for the longest time first, the unloaded cube cache is cleared, and "
+                            + "vertical view distance is reduced step by step. 0 disables it."),
+            COMPRESSION_CODEC(0, 3, 0,
+                    "Compression used when saving cubes and columns. 0 - GZIP, readable by older versions, 1 - no compression, "
+                            + "2 - deflate with configurable level, 3 - LZ4, fastest but compresses less. Changing it doesn't affect "
+                            + "already saved cubes, all of them can still be read."),
+            COMPRESSION_LEVEL(0, 9, 6, "Compression level used by the deflate compression codec. 1 is fastest, 9 compresses most."),
+            CUBE_IO_THREADS(0, 64, 0,
+                    "Maximum number of threads used to load cubes from disk. 0 means one thread for each available processor. "
+                            + "More threads are started only when there are more cubes waiting to be loaded than running threads."),
+            SAVE_QUEUE_MEMORY_LIMIT(16, Integer.MAX_VALUE, 512,
+                    "Approximate amount of memory (in megabytes) that cubes and columns waiting to be written to disk can use. "
+                            + "When it's reached, unloading cubes is delayed until enough of them is saved."),
+            UNLOADED_CUBE_CACHE_SIZE(0, Integer.MAX_VALUE, 64,
+                    "Approximate amount of memory (in megabytes) used to keep recently unloaded cubes and columns, so that loading them "
+                            + "again soon doesn't need to read them from disk. 0 disables it."),
+            CUBE_GENERATION_THREADS(-1, 64, -1,
+                    "Number of threads used to generate the terrain of cubes players are waiting for in the background, for world "
+                            + "types that support it. -1 (the default) generates everything on the server thread, 0 means one thread "
+                            + "less than the number of available processors. Population and lighting always run on the server thread. "
+                            + "Changing the number of threads requires a restart."),
+            BLOCK_READ_MODE(0, 2, 0,
+                    "What reading a block from a cube that isn't loaded does on the server, outside of the area a populator is "
+                            + "currently populating. 0 - load or generate the cube, like vanilla, 1 - only load cubes that were "
+                            + "already generated, 2 - only read loaded cubes. Blocks in cubes that aren't loaded or generated this way "
+                            + "are read as air. Populators can always read blocks in the cubes next to the one they populate. "
+                            + "Applies to worlds loaded after changing it."),
+            AUTOSAVE_TICK_BUDGET(0, 1000, 5,
+                    "Time in milliseconds that autosave can use each tick. Autosave is spread over many ticks, but still checks every "
+                            + "loaded cube before the next autosave. 0 saves everything in a single tick, like vanilla.");
 
             private final int minValue;
             private final int maxValue;
@@ -416,7 +463,23 @@ public class CubicChunks {
                             + CubicChunks.MODID + " will pregenerate cubes in a range of height from 0 to 255."),
             FORCE_CUBIC_CHUNKS(false,
                     "Enabling this will force creating a cubic chunks world, even if it's not cubic chunks world type. This option is automatically"
-                            + " set in world creation GUI when creating cubic chunks world with non-cubicchunks world type");
+                            + " set in world creation GUI when creating cubic chunks world with non-cubicchunks world type"),
+            USE_BINARY_CUBE_FORMAT(false,
+                    "Enabling this will save cubes in a binary format that is faster to write and read than NBT. Cubes saved in NBT format"
+                            + " are still read, but worlds saved with this option can't be opened by versions without it."),
+            USE_MEMORY_MAPPED_REGION_READS(false,
+                    "Enabling this will read cubes and columns through memory mapped region files, which avoids copying them when"
+                            + " loading already generated terrain. Uses more virtual memory."),
+            PREFETCH_COLUMN_CUBES(true,
+                    "Enabling this will read all cubes of a column that are needed by players at once, when the column is loaded,"
+                            + " instead of reading them one by one."),
+            USE_SAVE_JOURNAL(false,
+                    "Enabling this will write cubes still waiting to be saved when the server stops to a journal file, which is much"
+                            + " faster than writing them to region files. They are moved to the region files in the background the next time"
+                            + " the world is loaded, versions without this option would lose them."),
+            LOG_SYNC_BLOCK_READ_GENERATION(false,
+                    "Enabling this will log the stack trace and the time taken whenever reading a block generates cubes on the server,"
+                            + " once for each call site. Useful to find mods that read blocks far away from players.");
 
             private final boolean defaultValue;
             private final String description;
@@ -27,6 +27,7 @@ import com.google.common.base.Predicate;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.IHeightMap;
 import cubicchunks.world.column.CubeMap;
+import cubicchunks.world.column.EmptyCubeIndex;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
@@ -70,6 +71,8 @@ public abstract class MixinChunk_Column implements IColumn {
     private IHeightMap opacityIndex;
     private Cube cachedCube;
 
+    private EmptyCubeIndex emptyCubeIndex = new EmptyCubeIndex();
+
     @Shadow @Final public int z;
 
     @Shadow @Final public int x;
@@ -281,6 +284,7 @@ public abstract class MixinChunk_Column implements IColumn {
         if (cachedCube != null && cachedCube.getY() == cubeY) {
             invalidateCachedCube();
         }
+        getCubicWorld().invalidateCachedCube(x, cubeY, z);
         return this.cubeMap.remove(cubeY);
     }
 
@@ -412,6 +416,11 @@ public abstract class MixinChunk_Column implements IColumn {
     }
 
 
+    @Override public EmptyCubeIndex getEmptyCubeIndex() {
+        return this.emptyCubeIndex;
+    }
+
+
     @Override public Collection getLoadedCubes() {
         return this.cubeMap.all();
     }
@@ -463,7 +463,7 @@ public abstract class MixinChunk_Cubes implements IColumn {
     @Redirect(method = "setLightFor", at = @At(value = "FIELD", target = "Lnet/minecraft/world/chunk/Chunk;dirty:Z"))
     private void setIsModifiedFromSetLightFor_Field(Chunk chunk, boolean isModifiedIn, EnumSkyBlock type, BlockPos pos, int value) {
         if (isColumn) {
-            getCubicWorld().getCubeFromBlockCoords(pos).markDirty();
+            getCubicWorld().getCubeFromBlockCoords(pos).markDirty(Cube.SECTION_LIGHT);
         } else {
             dirty = isModifiedIn;
         }
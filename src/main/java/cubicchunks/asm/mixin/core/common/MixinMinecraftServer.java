@@ -30,11 +30,15 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.LocalCapture;
 
 import cubicchunks.event.CCEventFactory;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.ICubicWorldServer;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
 import net.minecraft.world.WorldSettings;
 import net.minecraft.world.WorldType;
 import net.minecraft.world.storage.ISaveHandler;
 import net.minecraft.world.storage.WorldInfo;
+import net.minecraftforge.common.DimensionManager;
 
 @Mixin(MinecraftServer.class)
 public class MixinMinecraftServer {
@@ -50,4 +54,21 @@ public class MixinMinecraftServer {
         CCEventFactory.onWorldSettingsCreate(worldsettings);
     }
 
+    @Inject(method = "tick", at = @At(value = "INVOKE", target = "Lnet/minecraft/server/MinecraftServer;saveAllWorlds(Z)V"))
+    private void beforeAutosave(CallbackInfo cbi) {
+        setAutosave(true);
+    }
+
+    @Inject(method = "tick", at = @At(value = "INVOKE", target = "Lnet/minecraft/server/MinecraftServer;saveAllWorlds(Z)V", shift = At.Shift.AFTER))
+    private void afterAutosave(CallbackInfo cbi) {
+        setAutosave(false);
+    }
+
+    private static void setAutosave(boolean autosave) {
+        for (WorldServer world : DimensionManager.getWorlds()) {
+            if (((ICubicWorld) world).isCubicWorld()) {
+                ((ICubicWorldServer) world).getCubeCache().setAutosave(autosave);
+            }
+        }
+    }
 }
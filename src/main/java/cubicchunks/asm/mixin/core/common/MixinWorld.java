@@ -27,8 +27,10 @@ import static cubicchunks.util.Coords.blockToCube;
 import static cubicchunks.util.Coords.blockToLocal;
 
 import cubicchunks.lighting.LightingManager;
+import cubicchunks.server.CubeProviderServer;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.IntRange;
+import cubicchunks.util.RecentXYZCache;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.ICubicWorldSettings;
@@ -100,6 +102,8 @@ public abstract class MixinWorld implements ICubicWorld {
     @Shadow protected abstract boolean isChunkLoaded(int i, int i1, boolean allowEmpty);
 
     @Nullable private LightingManager lightingManager;
+    // block reads tend to hit the same few cubes, this saves a hash map lookup for most of them
+    private final RecentXYZCache<Cube> recentCubes = new RecentXYZCache<>(4);
     protected boolean isCubicWorld;
     protected int minHeight = 0, maxHeight = 256;
     private int minGenerationHeight = 0, maxGenerationHeight = 256;
@@ -176,7 +180,49 @@ public abstract class MixinWorld implements ICubicWorld {
     }
 
     @Override public Cube getCubeFromCubeCoords(int cubeX, int cubeY, int cubeZ) {
-        return this.getCubeCache().getCube(cubeX, cubeY, cubeZ);
+        Cube cube = getRecentCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            return cube;
+        }
+        cube = this.getCubeCache().getCube(cubeX, cubeY, cubeZ);
+        if (cube.isCubeLoaded()) { // not a BlankCube
+            recentCubes.put(cube);
+        }
+        return cube;
+    }
+
+    /**
+     * Returns the cube a plain block read uses. On the server, cubes that aren't loaded are only loaded or generated as
+     * far as the block read requirement of the world allows.
+     *
+     * @return the cube, or null if it isn't loaded and can't be loaded for a block read
+     */
+    @Nullable
+    private Cube getCubeForBlockRead(int cubeX, int cubeY, int cubeZ) {
+        ICubeProvider cubeCache = this.getCubeCache();
+        if (!(cubeCache instanceof CubeProviderServer)) {
+            return getCubeFromCubeCoords(cubeX, cubeY, cubeZ);
+        }
+        Cube cube = getRecentCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            return cube;
+        }
+        cube = ((CubeProviderServer) cubeCache).getCubeForBlockRead(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            recentCubes.put(cube);
+        }
+        return cube;
+    }
+
+    @Nullable
+    private Cube getRecentCube(int cubeX, int cubeY, int cubeZ) {
+        Cube cube = recentCubes.get(cubeX, cubeY, cubeZ);
+        // server side cubes are marked unloaded before they are removed from the cache
+        return cube != null && cube.isCubeLoaded() ? cube : null;
+    }
+
+    @Override public void invalidateCachedCube(int cubeX, int cubeY, int cubeZ) {
+        recentCubes.remove(cubeX, cubeY, cubeZ);
     }
 
     @Override public Cube getCubeFromBlockCoords(BlockPos pos) {
@@ -229,7 +275,8 @@ public abstract class MixinWorld implements ICubicWorld {
         if (this.isCubicWorld()) {
             Cube cube = this.getCubeCache().getLoadedCube(CubePos.fromBlockCoords(pos));
             if (cube != null) {
-                cube.markDirty();
+                // tile entities are written on every save, blocks and light didn't change
+                cube.markDirty(0);
             }
             ci.cancel();
         }
@@ -238,8 +285,11 @@ public abstract class MixinWorld implements ICubicWorld {
     @Inject(method = "getBlockState", at = @At("HEAD"), cancellable = true)
     public void getBlockState(BlockPos pos, CallbackInfoReturnable<IBlockState> ci) {
         if (this.isCubicWorld()) {
+            Cube cube = null;
             if (this.isValid(pos))
-                ci.setReturnValue(this.getCubeCache().getCube(CubePos.fromBlockCoords(pos)).getBlockState(pos));
+                cube = this.getCubeForBlockRead(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
+            if (cube != null)
+                ci.setReturnValue(cube.getBlockState(pos));
             else
                 ci.setReturnValue(Blocks.AIR.getDefaultState());
             ci.cancel();
@@ -39,6 +39,7 @@ import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
+import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
@@ -66,7 +67,8 @@ public abstract class MixinWorld_CollisionCheck implements ICubicWorld {
             int z2 = MathHelper.ceil(maxZ);
             BlockPos.PooledMutableBlockPos pooledmutableblockpos = BlockPos.PooledMutableBlockPos.retain();
             next_cube_pos:for (int cx = blockToCube(x1); cx <= blockToCube(x2); cx++)
-                for (int cy = blockToCube(y1); cy <= blockToCube(y2); cy++)
+                for (int cy = blockToCube(y1); cy <= blockToCube(y2); cy++) {
+                    Cube loadedCube = null;
                     for (int cz = blockToCube(z1); cz <= blockToCube(z2); cz++) {
                         CubePos coords = new CubePos(cx, cy, cz);
                         int minBlockX = coords.getMinBlockX();
@@ -75,7 +77,8 @@ public abstract class MixinWorld_CollisionCheck implements ICubicWorld {
                         int maxBlockX = coords.getMaxBlockX();
                         int maxBlockY = coords.getMaxBlockY();
                         int maxBlockZ = coords.getMaxBlockZ();
-                        Cube loadedCube = this.getCubeCache().getLoadedCube(coords);
+                        // follow the link to the next cube when possible, only look up cubes after a gap
+                        loadedCube = loadedCube != null ? loadedCube.getLoadedNeighbor(EnumFacing.SOUTH) : this.getCubeCache().getLoadedCube(coords);
                         if (loadedCube != null && loadedCube.getStorage() != null) {
                             minBlockX = minBlockX > x1 ? minBlockX : x1;
                             minBlockY = minBlockY > y1 ? minBlockY : y1;
@@ -107,6 +110,7 @@ public abstract class MixinWorld_CollisionCheck implements ICubicWorld {
                             }
                         }
                     }
+                }
             pooledmutableblockpos.release();
             ci.setReturnValue(!aabbList.isEmpty());
             ci.cancel();
@@ -25,7 +25,7 @@ package cubicchunks.client;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.XYZMap;
+import cubicchunks.util.LongXYZMap;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorldClient;
 import cubicchunks.world.column.IColumn;
@@ -49,7 +49,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
 
     @Nonnull private ICubicWorldClient world;
     @Nonnull private Cube blankCube;
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    @Nonnull private LongXYZMap<Cube> cubeMap = new LongXYZMap<>(0.7f, 8000);
 
     public CubeProviderClient(ICubicWorldClient world) {
         super((World) world);
@@ -128,6 +128,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
         cube.setCubeLoaded();
         column.addCube(cube);
         this.cubeMap.put(cube);
+        cube.linkNeighbors(this);
 
         return cube;
     }
@@ -137,7 +138,10 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
      * It is used when the server tells the client to unload a Cube.
      */
     public void unloadCube(CubePos pos) {
-        cubeMap.remove(pos.getX(), pos.getY(), pos.getZ());
+        Cube cube = cubeMap.remove(pos.getX(), pos.getY(), pos.getZ());
+        if (cube != null) {
+            cube.unlinkNeighbors();
+        }
         IColumn IColumn = getLoadedColumn(pos.getX(), pos.getZ());
         if (IColumn != null) {
             IColumn.removeCube(pos.getY());
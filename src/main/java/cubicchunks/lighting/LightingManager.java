@@ -32,7 +32,6 @@ import cubicchunks.server.PlayerCubeMap;
 import cubicchunks.util.Coords;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.FastCubeBlockAccess;
-import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
@@ -232,12 +231,8 @@ public class LightingManager {
             LightUpdateTracker tracker = cube.getCubicWorld().getLightingManager().getTracker();
             for (EnumFacing dir : EnumFacing.values()) {
                 if (cube.edgeNeedSkyLightUpdate[dir.ordinal()]) {
-                    ICubeProvider cache = cube.getCubicWorld().getCubeCache();
                     CubePos cpos = cube.getCoords();
-                    Cube loadedCube = cache.getLoadedCube(
-                            cpos.getX() + dir.getFrontOffsetX(),
-                            cpos.getY() + dir.getFrontOffsetY(),
-                            cpos.getZ() + dir.getFrontOffsetZ());
+                    Cube loadedCube = cube.getLoadedNeighbor(dir);
                     if (loadedCube == null)
                         continue;
                     LightingManager manager = cube.getCubicWorld().getLightingManager();
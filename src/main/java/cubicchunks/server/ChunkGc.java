@@ -26,27 +26,72 @@ package cubicchunks.server;
 import cubicchunks.CubicChunks;
 import cubicchunks.CubicChunks.Config;
 import cubicchunks.IConfigUpdateListener;
+import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
  * Chunk Garbage Collector, automatically unloads unused chunks.
+ * <p>
+ * Instead of checking every loaded cube and column, only unload candidates are checked: cubes and columns that were
+ * just loaded, cubes that lost their last ticket, columns whose last cube was unloaded and columns that stopped being
+ * forced by Forge. A candidate that can't be unloaded yet is dropped, it becomes a candidate again when whatever keeps
+ * it loaded goes away.
+ * <p>
+ * Cubes that lost their last ticket are kept loaded for a grace period, so that a player moving back and forth across
+ * the edge of the view distance doesn't make them unload and load again.
+ * <p>
+ * When the heap is fuller than {@link CubicChunks.Config.IntOptions#HEAP_USAGE_LIMIT}, garbage collection runs more
+ * often and without the grace period, and the vertical view distance is reduced until memory usage goes down.
  */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class ChunkGc implements IConfigUpdateListener {
 
+    // how often heap usage is checked, and how often garbage collection runs while the heap is too full
+    private static final int HEAP_CHECK_INTERVAL = 20;
+    // ticks between changes of vertical view distance, to give unloading and garbage collection time to free memory
+    private static final int VIEW_DISTANCE_STEP_INTERVAL = 20 * 5;
+    // view distance is restored when heap usage drops this many percent below the limit
+    private static final int HEAP_USAGE_HYSTERESIS = 10;
+
     private final CubeProviderServer cubeCache;
 
     private int tick = 0;
     private volatile int updateInterval = 20 * 10;
+    // set when cube unloading was skipped because the save queue was full, retried every tick until it succeeds
+    private boolean unloadDeferred = false;
+    // set when the last sweep ran out of time, continued in the next tick
+    private boolean sweepUnfinished = false;
+
+    // ticks since this garbage collector was created
+    private long ticks = 0;
+
+    private final Set<Cube> cubeCandidates = new LinkedHashSet<>();
+    // cubes in their grace period mapped to the tick when it ends, sorted by it as long as the grace period isn't changed
+    private final LinkedHashMap<Cube, Long> releasedCubes = new LinkedHashMap<>();
+    private final Set<IColumn> columnCandidates = new LinkedHashSet<>();
+
+    private long unloadedCubes = 0;
+    // cubes that got a ticket again during their grace period, each of them would otherwise have been saved and loaded again
+    private long avoidedUnloads = 0;
+
+    // set while the heap is fuller than the configured limit
+    private boolean overHeapLimit = false;
+    // how much vertical view distance is currently reduced because of heap usage
+    private int viewDistanceReduction = 0;
+    private long lastViewDistanceChange = 0;
 
     public ChunkGc(CubeProviderServer cubeCache) {
         this.cubeCache = cubeCache;
@@ -54,16 +99,75 @@ public class ChunkGc implements IConfigUpdateListener {
     }
 
     public void tick() {
+        ticks++;
         tick++;
-        if (tick > updateInterval) {
+        if (ticks % HEAP_CHECK_INTERVAL == 0) {
+            checkHeapUsage();
+        }
+        if (tick > updateInterval || (overHeapLimit && tick > HEAP_CHECK_INTERVAL) || sweepUnfinished
+                || (unloadDeferred && !cubeCache.isSaveQueueFull())) {
             tick = 0;
-            chunkGc();
+            // cubes in their grace period are sorted from the least recently used, so those are unloaded first
+            sweep(System.nanoTime() + CubicChunks.Config.IntOptions.CHUNK_G_C_TIME_LIMIT.getValue() * 1000000L, overHeapLimit);
         }
         if (CubicChunks.DEBUG_ENABLED) {
             verifyColumnConsistency();
         }
     }
 
+    /**
+     * Marks a cube to be checked by the next garbage collection, it's unloaded then if nothing keeps it loaded.
+     *
+     * @param cube the cube that may be unloadable
+     */
+    public void addUnloadCandidate(Cube cube) {
+        cubeCandidates.add(cube);
+    }
+
+    /**
+     * Called when the last ticket of a cube is removed. The cube is unloaded when its grace period ends, unless it gets a
+     * ticket again until then.
+     *
+     * @param cube the cube without tickets
+     */
+    public void onLastTicketRemoved(Cube cube) {
+        // checked only after the grace period
+        cubeCandidates.remove(cube);
+        releasedCubes.remove(cube);
+        releasedCubes.put(cube, ticks + CubicChunks.Config.IntOptions.CUBE_UNLOAD_GRACE_PERIOD.getValue());
+    }
+
+    /**
+     * Called when a cube without tickets gets a ticket
+     *
+     * @param cube the cube that got a ticket
+     */
+    public void onFirstTicketAdded(Cube cube) {
+        if (releasedCubes.remove(cube) != null) {
+            avoidedUnloads++;
+        }
+    }
+
+    /**
+     * Marks a column to be checked by the next garbage collection, it's unloaded then if nothing keeps it loaded.
+     *
+     * @param column the column that may be unloadable
+     */
+    public void addUnloadCandidate(IColumn column) {
+        columnCandidates.add(column);
+    }
+
+    /**
+     * Marks a column and all of its loaded cubes to be checked by the next garbage collection. Used when something that
+     * kept the column loaded as a whole goes away, like a Forge chunk ticket.
+     *
+     * @param column the column that may be unloadable
+     */
+    public void addUnloadCandidates(IColumn column) {
+        cubeCandidates.addAll(column.getLoadedCubes());
+        columnCandidates.add(column);
+    }
+
     private void verifyColumnConsistency() {
         // currently do that every tick, until I'm sure it doesn't happen
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
@@ -96,22 +200,121 @@ public class ChunkGc implements IConfigUpdateListener {
         }
     }
 
+    /**
+     * Unloads all unload candidates that can be unloaded now, including cubes still in their grace period
+     */
     public void chunkGc() {
-        Iterator<Cube> cubeIt = cubeCache.cubesIterator();
-        while (cubeIt.hasNext()) {
-            if (cubeCache.tryUnloadCube(cubeIt.next())) {
+        sweep(Long.MAX_VALUE, true);
+    }
+
+    private void sweep(long deadline, boolean ignoreGracePeriod) {
+        // unloaded cubes are added to the save queue, don't make it grow even more when it's already full
+        unloadDeferred = cubeCache.isSaveQueueFull();
+        sweepUnfinished = false;
+        if (!unloadDeferred) {
+            Iterator<Map.Entry<Cube, Long>> releasedIt = releasedCubes.entrySet().iterator();
+            while (releasedIt.hasNext()) {
+                if (System.nanoTime() > deadline) {
+                    sweepUnfinished = true;
+                    return;
+                }
+                Map.Entry<Cube, Long> entry = releasedIt.next();
+                if (!ignoreGracePeriod && entry.getValue() > ticks) {
+                    break; // all following cubes are still in their grace period
+                }
+                releasedIt.remove();
+                tryUnloadCube(entry.getKey());
+            }
+            Iterator<Cube> cubeIt = cubeCandidates.iterator();
+            while (cubeIt.hasNext()) {
+                if (System.nanoTime() > deadline) {
+                    sweepUnfinished = true;
+                    return;
+                }
+                Cube cube = cubeIt.next();
                 cubeIt.remove();
+                tryUnloadCube(cube);
             }
         }
 
-        Iterator<IColumn> columnIt = cubeCache.columnsIterator();
+        Iterator<IColumn> columnIt = columnCandidates.iterator();
         while (columnIt.hasNext()) {
-            if (cubeCache.tryUnloadColumn(columnIt.next())) {
+            if (System.nanoTime() > deadline) {
+                sweepUnfinished = true;
+                return;
+            }
+            IColumn column = columnIt.next();
+            if (cubeCache.getLoadedColumn(column.getX(), column.getZ()) != column) {
+                columnIt.remove();
+                continue;
+            }
+            // a column without loaded cubes can still have cubes being loaded asynchronously, check it again next time
+            if (cubeCache.tryUnloadColumn(column) || column.hasLoadedCubes()) {
                 columnIt.remove();
             }
         }
     }
 
+    private void tryUnloadCube(Cube cube) {
+        // it could have been unloaded since it was added, but only the garbage collector unloads cubes
+        if (cubeCache.getLoadedCube(cube.getX(), cube.getY(), cube.getZ()) == cube && cubeCache.tryUnloadCube(cube)) {
+            unloadedCubes++;
+            IColumn column = cube.getColumn();
+            if (!column.hasLoadedCubes()) {
+                columnCandidates.add(column);
+            }
+        }
+    }
+
+    private void checkHeapUsage() {
+        int limit = CubicChunks.Config.IntOptions.HEAP_USAGE_LIMIT.getValue();
+        if (limit == 0) {
+            overHeapLimit = false;
+            if (viewDistanceReduction != 0) {
+                setViewDistanceReduction(0);
+            }
+            return;
+        }
+        double usedPercent = HeapUsage.getUsedFraction() * 100;
+        boolean wasOverLimit = overHeapLimit;
+        overHeapLimit = usedPercent > limit;
+        if (overHeapLimit && !wasOverLimit) {
+            CubicChunks.LOGGER.info("Heap usage is {}%, over the limit of {}%, unloading cubes more aggressively", (int) usedPercent, limit);
+            cubeCache.clearUnloadedCubeCache();
+            cubeCache.clearSavedSections();
+        }
+        if (ticks - lastViewDistanceChange < VIEW_DISTANCE_STEP_INTERVAL) {
+            return;
+        }
+        if (overHeapLimit) {
+            setViewDistanceReduction(viewDistanceReduction + 1);
+        } else if (viewDistanceReduction > 0 && usedPercent < limit - HEAP_USAGE_HYSTERESIS) {
+            setViewDistanceReduction(viewDistanceReduction - 1);
+        }
+    }
+
+    private void setViewDistanceReduction(int reduction) {
+        ICubicWorldServer world = (ICubicWorldServer) cubeCache.world;
+        PlayerCubeMap playerCubeMap = world.getPlayerCubeMap();
+        int configured = ((ICubicPlayerList) world.getMinecraftServer().getPlayerList()).getVerticalViewDistance();
+        // PlayerCubeMap doesn't go below 3
+        reduction = Math.max(0, Math.min(reduction, configured - 3));
+        if (reduction == viewDistanceReduction) {
+            return;
+        }
+        CubicChunks.LOGGER.info("Changing vertical view distance to {} because of heap usage", configured - reduction);
+        viewDistanceReduction = reduction;
+        lastViewDistanceChange = ticks;
+        playerCubeMap.setPlayerViewDistance(playerCubeMap.getHorizontalViewDistance(), configured - reduction);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkGc{" + cubeCandidates.size() + " cube candidates, " + releasedCubes.size() + " cubes in grace period, "
+                + columnCandidates.size() + " column candidates, " + unloadedCubes + " cubes unloaded, "
+                + avoidedUnloads + " unloads avoided" + (overHeapLimit ? ", over heap limit" : "") + "}";
+    }
+
     @Override
     public void onConfigUpdate(Config config) {
         this.updateInterval = config.getChunkGCInterval();
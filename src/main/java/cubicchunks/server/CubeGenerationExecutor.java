@@ -0,0 +1,231 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.server.chunkio.ICubeIO;
+import cubicchunks.util.LongXYZMap;
+import cubicchunks.util.XYZAddressable;
+import cubicchunks.worldgen.generator.ICubeGenerator;
+import cubicchunks.worldgen.generator.ICubePrimer;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Generates the terrain of cubes on background threads, for cube generators that are thread safe. The server thread
+ * requests the cubes it's going to need, and takes the finished {@link ICubePrimer} when it actually generates the
+ * cube, so that it only has to create the cube, populate and light it. Cubes that turn out to exist on disk aren't
+ * generated, nothing is loaded to find out.
+ * <p>
+ * All methods must be called from the server thread.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class CubeGenerationExecutor {
+
+    // limits memory used by cubes generated ahead of time, each primer is a few kilobytes
+    private static final int MAX_PENDING_CUBES = 1024;
+    // cubes that weren't requested again for this many ticks aren't needed anymore
+    private static final int EXPIRE_TICKS = 20 * 30;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor threadPool;
+
+    static {
+        int threads = getThreadCount();
+        threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "Cube Generation Thread #" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        threadPool.allowCoreThreadTimeOut(true);
+    }
+
+    private final ICubeGenerator generator;
+    private final ICubeIO cubeIO;
+    private final LongXYZMap<PendingCube> pending = new LongXYZMap<>(0.7f, MAX_PENDING_CUBES);
+
+    private CubeGenerationExecutor(ICubeGenerator generator, ICubeIO cubeIO) {
+        this.generator = generator;
+        this.cubeIO = cubeIO;
+    }
+
+    /**
+     * @return an executor for the given generator, or null if it's not thread safe or background generation is disabled
+     */
+    @Nullable
+    static CubeGenerationExecutor create(ICubeGenerator generator, ICubeIO cubeIO) {
+        if (!generator.isThreadSafe() || CubicChunks.Config.IntOptions.CUBE_GENERATION_THREADS.getValue() < 0) {
+            return null;
+        }
+        generator.prepareThreads(getThreadCount());
+        return new CubeGenerationExecutor(generator, cubeIO);
+    }
+
+    private static int getThreadCount() {
+        int threads = CubicChunks.Config.IntOptions.CUBE_GENERATION_THREADS.getValue();
+        return Math.max(1, threads <= 0 ? Runtime.getRuntime().availableProcessors() - 1 : threads);
+    }
+
+    /**
+     * Starts generating the given cube in the background, unless it's already being generated. The cube is only
+     * generated if it doesn't exist on disk, otherwise the result is null.
+     *
+     * @param worldTime current world time, cubes that aren't requested for a while are dropped
+     *
+     * @return true if the generated cube is ready to be taken
+     */
+    boolean request(int cubeX, int cubeY, int cubeZ, long worldTime) {
+        PendingCube cube = pending.get(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            cube.lastRequested = worldTime;
+            return cube.task.isDone();
+        }
+        if (isFull()) {
+            return false;
+        }
+        cube = new PendingCube(cubeX, cubeY, cubeZ, new FutureTask<>(() -> generate(cubeX, cubeY, cubeZ)), worldTime);
+        pending.put(cube);
+        threadPool.execute(cube.task);
+        return false;
+    }
+
+    @Nullable
+    private ICubePrimer generate(int cubeX, int cubeY, int cubeZ) throws IOException {
+        if (cubeIO.cubeExists(cubeX, cubeY, cubeZ)) {
+            // it's going to be loaded from disk
+            return null;
+        }
+        return generator.generateCube(cubeX, cubeY, cubeZ);
+    }
+
+    /**
+     * @return true if the given cube was requested and hasn't been taken, cancelled or dropped yet
+     */
+    boolean isRequested(int cubeX, int cubeY, int cubeZ) {
+        return pending.get(cubeX, cubeY, cubeZ) != null;
+    }
+
+    /**
+     * @return true if no more cubes can be requested until some of the requested ones are taken or dropped
+     */
+    boolean isFull() {
+        return pending.getSize() >= MAX_PENDING_CUBES;
+    }
+
+    /**
+     * Takes the result of generating the given cube in the background. Waits for it if it's being generated right now.
+     *
+     * @return the generated primer, or null if the cube wasn't requested, didn't start generating yet, exists on disk,
+     * or generating it failed. The caller should generate it itself then.
+     */
+    @Nullable
+    ICubePrimer take(int cubeX, int cubeY, int cubeZ) {
+        PendingCube cube = pending.remove(cubeX, cubeY, cubeZ);
+        if (cube == null || threadPool.remove(cube.task)) {
+            return null;
+        }
+        try {
+            return cube.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for cube generation", e);
+        } catch (ExecutionException e) {
+            CubicChunks.LOGGER.error("Generating cube at ({}, {}, {}) in the background failed, generating it again",
+                    cubeX, cubeY, cubeZ, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Drops the given cube, if it was requested. Called when the cube is loaded, so that it's not generated needlessly.
+     */
+    void cancel(int cubeX, int cubeY, int cubeZ) {
+        PendingCube cube = pending.remove(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            threadPool.remove(cube.task);
+            cube.task.cancel(false);
+        }
+    }
+
+    /**
+     * Drops cubes that weren't requested for a while, they are probably too far away from players now
+     *
+     * @param worldTime current world time
+     */
+    void dropExpired(long worldTime) {
+        Iterator<PendingCube> it = pending.iterator();
+        while (it.hasNext()) {
+            PendingCube cube = it.next();
+            if (worldTime - cube.lastRequested > EXPIRE_TICKS) {
+                threadPool.remove(cube.task);
+                cube.task.cancel(false);
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CubeGenerationExecutor{" + pending.getSize() + " cubes requested}";
+    }
+
+    private static class PendingCube implements XYZAddressable {
+
+        private final int x, y, z;
+        final FutureTask<ICubePrimer> task;
+        long lastRequested;
+
+        PendingCube(int x, int y, int z, FutureTask<ICubePrimer> task, long lastRequested) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.task = task;
+            this.lastRequested = lastRequested;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -26,11 +26,13 @@ package cubicchunks.server;
 import cubicchunks.CubicChunks;
 import cubicchunks.asm.CubicChunksMixinConfig;
 import cubicchunks.lighting.LightingManager;
+import cubicchunks.server.chunkio.CubeSectionCache;
 import cubicchunks.server.chunkio.ICubeIO;
+import cubicchunks.server.chunkio.MappedRegionCubeIO;
 import cubicchunks.server.chunkio.RegionCubeIO;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
+import cubicchunks.util.ConcurrentLongXYZMap;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.XYZMap;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IProviderExtras;
@@ -54,6 +56,7 @@ import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -77,16 +80,41 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class CubeProviderServer extends ChunkProviderServer implements ICubeProvider, IProviderExtras {
 
+    // vanilla autosaves every 900 ticks, an incremental autosave is finished well before that
+    private static final int AUTOSAVE_SPREAD_TICKS = 600;
+
     @Nonnull private ICubicWorldServer worldServer;
     @Nonnull private ICubeIO cubeIO;
 
-    // TODO: Use a better hash map!
-    @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    // modified only on the server thread, but can be read from any thread
+    @Nonnull private ConcurrentLongXYZMap<Cube> cubeMap = new ConcurrentLongXYZMap<>(0.7f, 8000);
 
     @Nonnull private ICubeGenerator cubeGen;
+    // generates cubes players are waiting for in the background, null if the generator doesn't support it
+    @Nullable private final CubeGenerationExecutor generationExecutor;
+    // cubes around cubes being generated that are loaded to find out whether they need to be generated too
     @Nonnull private Profiler profiler;
     private final boolean doRandomBlockTicksHere;
 
+    // set while the vanilla autosave runs, so that saveChunks can spread the save over the next ticks
+    private boolean autosave = false;
+    // position of an incremental autosave in progress, null if there is none
+    @Nullable private Iterator<Cube> autosaveCubes;
+    @Nullable private Iterator<Chunk> autosaveColumns;
+    // the least amount of cubes and columns checked each tick, to finish before the next autosave
+    private int autosaveMinCubesPerTick;
+    private int autosaveMinColumnsPerTick;
+
+    // what World.getBlockState does with cubes that aren't loaded
+    @Nonnull private Requirement blockReadRequirement;
+    private final SyncGenerationTripwire blockReadTripwire = new SyncGenerationTripwire();
+    // total number of generated cubes, to tell whether a block read generated any
+    private int generatedCubeCount;
+    // the cube being populated, block reads next to it generate cubes like vanilla, whatever blockReadRequirement is
+    @Nullable private CubePos populatedCube;
+    // set while vanilla world generators populate a whole column, they read blocks at any height
+    private boolean populatedWholeColumn;
+
     public CubeProviderServer(ICubicWorldServer worldServer, ICubeGenerator cubeGen) {
         super((WorldServer) worldServer,
                 worldServer.getSaveHandler().getChunkLoader(worldServer.getProvider()), // forge uses this in
@@ -96,12 +124,25 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         this.worldServer = worldServer;
         this.profiler = ((WorldServer) worldServer).profiler;
         try {
-            this.cubeIO = new RegionCubeIO(worldServer);
+            this.cubeIO = CubicChunks.Config.BoolOptions.USE_MEMORY_MAPPED_REGION_READS.getValue()
+                    ? new MappedRegionCubeIO(worldServer)
+                    : new RegionCubeIO(worldServer);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        this.generationExecutor = CubeGenerationExecutor.create(cubeGen, cubeIO);
 
         doRandomBlockTicksHere = CubicChunksMixinConfig.BoolOptions.RANDOM_TICK_IN_CUBE.getValue();
+        switch (CubicChunks.Config.IntOptions.BLOCK_READ_MODE.getValue()) {
+            case 1:
+                blockReadRequirement = Requirement.LOAD;
+                break;
+            case 2:
+                blockReadRequirement = Requirement.GET_CACHED;
+                break;
+            default:
+                blockReadRequirement = Requirement.GENERATE;
+        }
     }
 
     @Override
@@ -176,6 +217,23 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
     @Override
     public boolean saveChunks(boolean alwaysTrue) {
+        if (autosave && CubicChunks.Config.IntOptions.AUTOSAVE_TICK_BUDGET.getValue() > 0) {
+            // finish the previous autosave first, so that no cube waits for more than 2 autosave intervals
+            while (autosaveCubes != null) {
+                continueAutosave(Long.MAX_VALUE);
+            }
+            // copied, because the iterator of the map doesn't allow loading cubes while iterating
+            List<Cube> cubes = new ArrayList<>(cubeMap.getSize());
+            cubeMap.forEach(cubes::add);
+            autosaveCubes = cubes.iterator();
+            autosaveColumns = new ArrayList<>(id2ChunkMap.values()).iterator();
+            autosaveMinCubesPerTick = cubeMap.getSize() / AUTOSAVE_SPREAD_TICKS + 1;
+            autosaveMinColumnsPerTick = id2ChunkMap.size() / AUTOSAVE_SPREAD_TICKS + 1;
+            return true;
+        }
+        // everything is saved now, there is no need to continue an autosave
+        autosaveCubes = null;
+        autosaveColumns = null;
         for (Cube cube : cubeMap) { // save cubes
             if (cube.needsSaving()) {
                 this.cubeIO.saveCube(cube);
@@ -210,14 +268,67 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             while (randomTickCounter-- > 0)
                 cube.randomTick(this.world, rand);
         }
+        if (generationExecutor != null && this.world.getTotalWorldTime() % 20 == 0) {
+            generationExecutor.dropExpired(this.world.getTotalWorldTime());
+        }
+        if (autosaveCubes != null) {
+            profiler.startSection("autosave");
+            continueAutosave(System.nanoTime() + CubicChunks.Config.IntOptions.AUTOSAVE_TICK_BUDGET.getValue() * 1000_000L);
+            profiler.endSection();
+        }
         profiler.endSection();
         return false;
     }
 
+    /**
+     * Saves the next cubes and columns of an incremental autosave until the deadline is reached, but at least enough of
+     * them to finish the autosave in {@link #AUTOSAVE_SPREAD_TICKS} ticks.
+     * <p>
+     * Cubes and columns are iterated over a copy made when the autosave started, so those unloaded in the meantime are
+     * skipped here, they have been saved by {@link #tryUnloadCube(Cube)} and {@link #tryUnloadColumn(IColumn)}.
+     */
+    private void continueAutosave(long deadline) {
+        assert autosaveCubes != null && autosaveColumns != null;
+        int columns = 0;
+        while (autosaveColumns.hasNext() && (columns < autosaveMinColumnsPerTick || System.nanoTime() < deadline)) {
+            Chunk chunk = autosaveColumns.next();
+            IColumn column = (IColumn) chunk;
+            // the column could have been unloaded, or even loaded again as a different object
+            if (id2ChunkMap.get(ChunkPos.asLong(column.getX(), column.getZ())) == chunk && column.needsSaving(true)) {
+                this.cubeIO.saveColumn(column);
+            }
+            columns++;
+        }
+        int cubes = 0;
+        while (autosaveCubes.hasNext() && (cubes < autosaveMinCubesPerTick || System.nanoTime() < deadline)) {
+            Cube cube = autosaveCubes.next();
+            if (cubeMap.get(cube.getX(), cube.getY(), cube.getZ()) == cube && cube.needsSaving()) {
+                this.cubeIO.saveCube(cube);
+            }
+            cubes++;
+        }
+        if (!autosaveCubes.hasNext() && !autosaveColumns.hasNext()) {
+            autosaveCubes = null;
+            autosaveColumns = null;
+        }
+    }
+
+    /**
+     * Called before and after the vanilla autosave, which would otherwise save all cubes in one tick.
+     *
+     * @param autosave true if the following {@link #saveChunks(boolean)} call is an autosave
+     */
+    public void setAutosave(boolean autosave) {
+        this.autosave = autosave;
+    }
+
     @Override
     public String makeString() {
         return "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
-                + this.cubeMap.getSize() + " cubes";
+                + this.cubeMap.getSize() + " cubes, unloaded cube cache: " + this.cubeIO.getColdCache() + ", "
+                + this.worldServer.getChunkGarbageCollector() + ", " + this.blockReadTripwire
+                + (this.generationExecutor == null ? "" : ", " + this.generationExecutor)
+                + ", saved sections: " + CubeSectionCache.getTotalBytes() / 1024 + "k";
     }
 
     @Override
@@ -256,6 +367,10 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return getCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    /**
+     * Returns the loaded cube at the given position. This can be called from any thread, but the returned cube itself
+     * is not thread safe.
+     */
     @Nullable @Override
     public Cube getLoadedCube(int cubeX, int cubeY, int cubeZ) {
         return cubeMap.get(cubeX, cubeY, cubeZ);
@@ -266,6 +381,54 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return getLoadedCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    /**
+     * Returns the cube World.getBlockState reads from. Outside of the area that is being populated, cubes that aren't
+     * loaded are only loaded or generated as far as {@link #getBlockReadRequirement()} allows. Populators still get
+     * the cubes next to the one they populate, generated if needed. Reads that generate cubes are recorded.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     *
+     * @return the cube, or <code>null</code> if it isn't loaded and the block read requirement doesn't allow loading it
+     */
+    @Nullable
+    public Cube getCubeForBlockRead(int cubeX, int cubeY, int cubeZ) {
+        Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
+        Requirement req = isInPopulatedArea(cubeX, cubeY, cubeZ) ? Requirement.GENERATE : blockReadRequirement;
+        if (cube != null || req == Requirement.GET_CACHED) {
+            return cube;
+        }
+        long start = System.nanoTime();
+        int generatedBefore = generatedCubeCount;
+        cube = getCube(cubeX, cubeY, cubeZ, req);
+        if (generatedCubeCount != generatedBefore) {
+            blockReadTripwire.record(cubeX, cubeY, cubeZ, generatedCubeCount - generatedBefore, System.nanoTime() - start);
+        }
+        return cube;
+    }
+
+    public Requirement getBlockReadRequirement() {
+        return blockReadRequirement;
+    }
+
+    private boolean isInPopulatedArea(int cubeX, int cubeY, int cubeZ) {
+        CubePos pos = this.populatedCube;
+        return pos != null && Math.abs(cubeX - pos.getX()) <= 1 && Math.abs(cubeZ - pos.getZ()) <= 1
+                && (populatedWholeColumn || Math.abs(cubeY - pos.getY()) <= 1);
+    }
+
+    /**
+     * Sets how much work reading a block from a cube that isn't loaded can do in this world, outside of the area that
+     * is being populated. Defaults to the blockReadMode config option.
+     *
+     * @param req {@link Requirement#GENERATE} to generate cubes like vanilla, {@link Requirement#LOAD} to only load
+     * already generated cubes, {@link Requirement#GET_CACHED} to only read loaded cubes
+     */
+    public void setBlockReadRequirement(Requirement req) {
+        this.blockReadRequirement = req;
+    }
+
     /**
      * Load a cube, asynchronously. The work done to retrieve the column is specified by the
      * {@link Requirement} <code>req</code>
@@ -336,8 +499,14 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             //can modify one that is being loaded, it's impossible to end up with 2 versions of the same cube
             //This is only to prevents multiple callbacks for the same queued load from adding the same cube twice.
             if (!column.getLoadedCubes().contains(cube)) {
+                if (generationExecutor != null) {
+                    generationExecutor.cancel(cube.getX(), cube.getY(), cube.getZ());
+                }
+                cube.linkNeighbors(this);
                 column.addCube(cube);
                 cube.onLoad(); // init the Cube
+                // unloaded by the next garbage collection, unless something adds a ticket until then
+                worldServer.getChunkGarbageCollector().addUnloadCandidate(cube);
             }
         }
     }
@@ -406,8 +575,12 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @return The generated cube
      */
     private Cube generateCube(int cubeX, int cubeY, int cubeZ, IColumn column) {
-        ICubePrimer primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        ICubePrimer primer = generationExecutor == null ? null : generationExecutor.take(cubeX, cubeY, cubeZ);
+        if (primer == null) {
+            primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        }
         Cube cube = new Cube(column, cubeY, primer);
+        generatedCubeCount++;
 
         onCubeLoaded(cube, column);
 
@@ -417,6 +590,59 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return cube;
     }
 
+    /**
+     * Starts generating the terrain of the cubes that generating, populating and lighting the given cube needs in the
+     * background, if the cube generator supports it. Should only be called for cubes that don't exist on disk.
+     * <p>
+     * The cubes around it may exist on disk. Before generating a cube, the generation thread checks whether it
+     * exists, without loading it, and skips it if it does. Those cubes are loaded when they are needed.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     *
+     * @return true if none of these cubes is still being generated in the background, so getting the cube with
+     * {@link Requirement#LIGHT} won't have to wait for them
+     */
+    boolean prepareCubeGeneration(int cubeX, int cubeY, int cubeZ) {
+        if (generationExecutor == null) {
+            return true;
+        }
+        long worldTime = this.world.getTotalWorldTime();
+        boolean ready = true;
+        // the same area calculateDiffuseSkylight needs, which also contains the recommended population requirement
+        for (int y = 2; y >= -2; y--) {
+            for (int x = -2; x <= 2; x++) {
+                for (int z = -2; z <= 2; z++) {
+                    if (needsGeneration(cubeX + x, cubeY + y, cubeZ + z)
+                            && !generationExecutor.request(cubeX + x, cubeY + y, cubeZ + z, worldTime)) {
+                        ready = false;
+                    }
+                }
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * @return false if the cube is known not to need generating: it's loaded, or it's in the empty cube index of its
+     * column
+     */
+    private boolean needsGeneration(int cubeX, int cubeY, int cubeZ) {
+        if (getLoadedCube(cubeX, cubeY, cubeZ) != null) {
+            return false;
+        }
+        IColumn column = getLoadedColumn(cubeX, cubeZ);
+        return column == null || !column.getEmptyCubeIndex().contains(cubeY);
+    }
+
+    /**
+     * @return true if no more cubes can be generated in the background until players get the ones generated already
+     */
+    boolean isGenerationQueueFull() {
+        return generationExecutor != null && generationExecutor.isFull();
+    }
+
     /**
      * Populate a cube at the specified position, generating surrounding cubes as necessary
      *
@@ -432,7 +658,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         cubeGen.getPopulationRequirement(cube).forEachPoint((x, y, z) -> {
             Cube popcube = getCube(x + cubeX, y + cubeY, z + cubeZ);
             if (!popcube.isPopulated()) {
-                cubeGen.populate(popcube);
+                populate(popcube);
                 popcube.setPopulated(true);
             }
         });
@@ -443,18 +669,46 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                     for (int y = 15; y >= 0; y--) {
                         Cube popcube = getCube(x + cubeX, y + cubeY, z + cubeZ);
                         if (!popcube.isPopulated()) {
-                            cubeGen.populate(popcube);
+                            populate(popcube);
                             popcube.setPopulated(true);
                         }
                     }
                 }
             }
-            GameRegistry.generateWorld(cubeX, cubeZ, world, chunkGenerator, this);
+            CubePos prevCube = this.populatedCube;
+            boolean prevWholeColumn = this.populatedWholeColumn;
+            this.populatedCube = cube.getCoords();
+            this.populatedWholeColumn = true;
+            try {
+                GameRegistry.generateWorld(cubeX, cubeZ, world, chunkGenerator, this);
+            } finally {
+                this.populatedCube = prevCube;
+                this.populatedWholeColumn = prevWholeColumn;
+            }
         }
         
         cube.setFullyPopulated(true);
     }
 
+    /**
+     * Runs the populators of the cube generator, marking the cubes around it as the populated area, where block reads
+     * can generate cubes.
+     *
+     * @param cube the cube to populate
+     */
+    private void populate(Cube cube) {
+        CubePos prevCube = this.populatedCube;
+        boolean prevWholeColumn = this.populatedWholeColumn;
+        this.populatedCube = cube.getCoords();
+        this.populatedWholeColumn = false;
+        try {
+            cubeGen.populate(cube);
+        } finally {
+            this.populatedCube = prevCube;
+            this.populatedWholeColumn = prevWholeColumn;
+        }
+    }
+
     /**
      * Initialize skylight for the cube at the specified position, generating surrounding cubes as needed.
      *
@@ -543,6 +797,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), (Chunk) column);
             column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just loaded
             column.onLoad();
+            worldServer.getChunkGarbageCollector().addUnloadCandidate(column);
             return column;
         } else if (req == Requirement.LOAD) {
             return null;
@@ -554,6 +809,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), (Chunk) column);
         column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just generated
         column.onLoad();
+        worldServer.getChunkGarbageCollector().addUnloadCandidate(column);
         return column;
     }
 
@@ -587,6 +843,29 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         this.cubeIO.flush();
     }
 
+    /**
+     * @return true if cubes shouldn't be unloaded because there is too much data waiting to be saved
+     */
+    boolean isSaveQueueFull() {
+        return cubeIO.isSaveQueueFull();
+    }
+
+    /**
+     * Drops recently unloaded cubes and columns kept in memory, to free memory when the heap is almost full
+     */
+    void clearUnloadedCubeCache() {
+        cubeIO.getColdCache().clear();
+    }
+
+    /**
+     * Drops the encoded sections loaded cubes keep from their last save, to free memory when the heap is almost full
+     */
+    void clearSavedSections() {
+        for (Cube cube : cubeMap) {
+            cube.getSavedSections().clear();
+        }
+    }
+
     Iterator<Cube> cubesIterator() {
         return cubeMap.iterator();
     }
@@ -607,13 +886,14 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         // unload the Cube!
         cube.onUnload();
 
-        if (cube.needsSaving()) { // save the Cube, if it needs saving
-            this.cubeIO.saveCube(cube);
-        }
+        // save the Cube, if it needs saving
+        this.cubeIO.unloadCube(cube);
 
         if (cube.getColumn().removeCube(cube.getY()) == null) {
             throw new RuntimeException();
         }
+        cubeMap.remove(cube.getX(), cube.getY(), cube.getZ());
+        cube.unlinkNeighbors();
         return true;
     }
 
@@ -635,9 +915,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         // unload the Column!
         column.onUnload();
 
-        if (column.needsSaving(true)) { // save the Column, if it needs saving
-            this.cubeIO.saveColumn(column);
-        }
+        // save the Column, if it needs saving
+        this.cubeIO.unloadColumn(column);
+        id2ChunkMap.remove(ChunkPos.asLong(column.getX(), column.getZ()));
         return true;
     }
 
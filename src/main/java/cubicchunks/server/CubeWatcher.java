@@ -66,6 +66,8 @@ public class CubeWatcher implements XYZAddressable, ITicket {
     private final Consumer<Cube> consumer = (c) -> {
         this.cube = c;
         this.loading = false;
+        // the column is always loaded for cube loads, so no cube means it's not on disk
+        this.missingOnDisk = c == null;
         if (this.cube != null) {
             this.cube.getTickets().add(this);
         }
@@ -79,6 +81,8 @@ public class CubeWatcher implements XYZAddressable, ITicket {
     private long previousWorldTime = 0;
     private boolean sentToPlayers = false;
     private boolean loading = true;
+    // true if loading the cube found that it doesn't exist on disk, so it has to be generated
+    private boolean missingOnDisk = false;
 
     // CHECKED: 1.10.2-12.18.1.2092
     CubeWatcher(PlayerCubeMap playerCubeMap, CubePos cubePos) {
@@ -154,6 +158,11 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         int cubeY = cubePos.getY();
         int cubeZ = cubePos.getZ();
 
+        // cubes that exist on disk never wait for background generation, the terrain around them most likely exists too
+        if (canGenerate && this.missingOnDisk && this.cube == null && !this.cubeCache.prepareCubeGeneration(cubeX, cubeY, cubeZ)) {
+            return false; // try again when the terrain around it is generated
+        }
+
         playerCubeMap.getWorld().getProfiler().startSection("getCube");
         if (canGenerate) {
             this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT);
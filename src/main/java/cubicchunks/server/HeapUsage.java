@@ -0,0 +1,87 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Measures how full the heap is, used to unload cubes more aggressively when memory runs low.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class HeapUsage {
+
+    /**
+     * Heap pools that hold long lived objects, like the old generation. Young generation pools don't support usage
+     * thresholds, and their usage says nothing about how much memory is actually needed.
+     */
+    private static final List<MemoryPoolMXBean> TENURED_POOLS = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported())
+            .collect(Collectors.toList());
+
+    private HeapUsage() {
+        throw new Error();
+    }
+
+    /**
+     * Returns the used part of the heap, between 0 and 1. When the garbage collector reports it, usage of the old
+     * generation after the last collection is used, because the current usage also counts garbage that wasn't collected
+     * yet.
+     *
+     * @return the used fraction of the maximum heap size
+     */
+    public static double getUsedFraction() {
+        double max = -1;
+        for (MemoryPoolMXBean pool : TENURED_POOLS) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            double fraction = usedFraction(usage);
+            if (usage != null && usage.getUsed() > 0 && fraction > max) {
+                max = fraction;
+            }
+        }
+        if (max >= 0) {
+            return max;
+        }
+        return Math.max(0, usedFraction(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()));
+    }
+
+    private static double usedFraction(@Nullable MemoryUsage usage) {
+        if (usage == null) {
+            return -1;
+        }
+        long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        return max > 0 ? (double) usage.getUsed() / max : -1;
+    }
+}
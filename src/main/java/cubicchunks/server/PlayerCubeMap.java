@@ -39,7 +39,7 @@ import cubicchunks.lighting.LightingManager;
 import cubicchunks.network.PacketCubes;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.XYZMap;
+import cubicchunks.util.LongXYZMap;
 import cubicchunks.util.XZMap;
 import cubicchunks.visibility.CubeSelector;
 import cubicchunks.visibility.CuboidalCubeSelector;
@@ -121,7 +121,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Mapping of Cube positions to CubeWatchers (Cube equivalent of PlayerManager.PlayerInstance).
      * Contains cube positions of all cubes loaded by players.
      */
-    private final XYZMap<CubeWatcher> cubeWatchers = new XYZMap<>(0.7f, 25 * 25 * 25);
+    private final LongXYZMap<CubeWatcher> cubeWatchers = new LongXYZMap<>(0.7f, 25 * 25 * 25);
 
     /**
      * Mapping of Column positions to ColumnWatchers.
@@ -312,6 +312,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                     getWorld().getProfiler().startSection("generate");
                     success = watcher.providePlayerCube(canGenerate);
                     getWorld().getProfiler().endSection();
+                    if (!success && this.cubeCache.isGenerationQueueFull()) {
+                        // the cubes before this one are still being generated in the background
+                        getWorld().getProfiler().endSection();//chunk[x, y, z]
+                        break;
+                    }
                 }
 
                 if (success) {
@@ -694,6 +699,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.setNeedSort();
     }
 
+    public int getHorizontalViewDistance() {
+        return horizontalViewDistance;
+    }
+
+    public int getVerticalViewDistance() {
+        return verticalViewDistance;
+    }
+
     private void setNeedSort() {
         this.toGenerateNeedSort = true;
         this.toSendToClientNeedSort = true;
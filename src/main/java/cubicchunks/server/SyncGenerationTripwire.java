@@ -0,0 +1,90 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Keeps track of block reads that had to generate cubes synchronously, which usually means something reads blocks far
+ * away from players. When enabled in the config, the stack trace of each new call site is logged.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class SyncGenerationTripwire {
+
+    // stack frames used to tell call sites apart
+    private static final int CALL_SITE_DEPTH = 32;
+    // stop logging after this many different call sites, there is no point in filling the log with them
+    private static final int MAX_LOGGED_CALL_SITES = 64;
+
+    private final Set<List<StackTraceElement>> loggedCallSites = new HashSet<>();
+
+    private long reads;
+    private long generatedCubes;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Records a block read that generated cubes
+     *
+     * @param cubeX x position of the cube the block was read from
+     * @param cubeY y position of the cube the block was read from
+     * @param cubeZ z position of the cube the block was read from
+     * @param generated number of cubes generated by the read
+     * @param nanos time the read took, in nanoseconds
+     */
+    synchronized void record(int cubeX, int cubeY, int cubeZ, int generated, long nanos) {
+        reads++;
+        generatedCubes += generated;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+
+        if (!CubicChunks.Config.BoolOptions.LOG_SYNC_BLOCK_READ_GENERATION.getValue()
+                || loggedCallSites.size() >= MAX_LOGGED_CALL_SITES) {
+            return;
+        }
+        Throwable callSite = new Throwable("Block read call site");
+        StackTraceElement[] trace = callSite.getStackTrace();
+        if (!loggedCallSites.add(Arrays.asList(Arrays.copyOf(trace, Math.min(trace.length, CALL_SITE_DEPTH))))) {
+            return;
+        }
+        CubicChunks.LOGGER.warn("Reading a block in cube ({}, {}, {}) generated {} cubes synchronously, took {} ms",
+                cubeX, cubeY, cubeZ, generated, TimeUnit.NANOSECONDS.toMillis(nanos), callSite);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SyncGenerationTripwire{" + reads + " block reads generated " + generatedCubes + " cubes in "
+                + TimeUnit.NANOSECONDS.toMillis(totalNanos) + " ms, max " + TimeUnit.NANOSECONDS.toMillis(maxNanos) + " ms}";
+    }
+}
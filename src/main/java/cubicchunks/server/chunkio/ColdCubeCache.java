@@ -0,0 +1,155 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Least recently used cache of cubes and columns that were unloaded recently, in the form they are read in, so that
+ * loading them again soon afterwards doesn't need to read, decompress and parse them.
+ * <p>
+ * Cubes keep the block storage of the unloaded cube, which is handed over to the cube loaded from it. Because of that,
+ * every entry is used at most once and is removed when it's loaded. The entry is always the newest version of the cube or
+ * column: it's added when it's unloaded, and can't change until it's loaded again.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class ColdCubeCache {
+
+    // estimated memory used by a block storage, mostly the block state and light arrays
+    private static final long STORAGE_SIZE_ESTIMATE = 10 * 1024;
+    private static final long COLUMN_SIZE_ESTIMATE = 4 * 1024;
+
+    private final Map<Object, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long sizeBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    synchronized void putCube(CubePos pos, NBTTagCompound nbt, @Nullable ExtendedBlockStorage storage, long maxBytes) {
+        long size = 512 + CubeSnapshot.estimateListsSize(nbt.getCompoundTag("Level")) + (storage == null ? 0 : STORAGE_SIZE_ESTIMATE);
+        put(pos, new Entry(nbt, storage, size), maxBytes);
+    }
+
+    synchronized void putColumn(ChunkPos pos, NBTTagCompound nbt, long maxBytes) {
+        put(pos, new Entry(nbt, null, COLUMN_SIZE_ESTIMATE), maxBytes);
+    }
+
+    private void put(Object key, Entry entry, long maxBytes) {
+        Entry old = entries.put(key, entry);
+        sizeBytes += entry.size - (old == null ? 0 : old.size);
+        Iterator<Entry> it = entries.values().iterator();
+        while (sizeBytes > maxBytes && it.hasNext()) {
+            sizeBytes -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes and returns a cached cube
+     */
+    @Nullable Entry takeCube(CubePos pos) {
+        return take(pos);
+    }
+
+    /**
+     * Removes and returns a cached column
+     */
+    @Nullable Entry takeColumn(ChunkPos pos) {
+        return take(pos);
+    }
+
+    @Nullable private synchronized Entry take(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        sizeBytes -= entry.size;
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    synchronized boolean containsCube(CubePos pos) {
+        return entries.containsKey(pos);
+    }
+
+    /**
+     * Removes all cubes and columns from this cache, they are loaded from disk again when needed
+     */
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     * @return how many cube and column loads were served by this cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many cube and column loads had to read from disk
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return estimated memory used by the cached cubes and columns, in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override public String toString() {
+        return String.format("%d hits, %d misses, %d kB", getHits(), getMisses(), getSizeBytes() / 1024);
+    }
+
+    static class Entry {
+
+        final NBTTagCompound nbt;
+        @Nullable final ExtendedBlockStorage storage;
+        final long size;
+
+        Entry(NBTTagCompound nbt, @Nullable ExtendedBlockStorage storage, long size) {
+            this.nbt = nbt;
+            this.storage = storage;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.CubicChunks;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The available {@link ICompressionCodec}s.
+ * <p>
+ * GZIP is the format used by vanilla and by older versions of Cubic Chunks. It doesn't have a separate header byte,
+ * every GZIP stream starts with 0x1F anyway, so all entries written before codecs existed are still readable.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class CompressionCodecs {
+
+    static final ICompressionCodec GZIP = new GzipCodec();
+    static final ICompressionCodec NONE = new NoCompressionCodec();
+    static final ICompressionCodec LZ4 = new Lz4CompressionCodec();
+
+    private static final byte DEFLATE_HEADER = 2;
+    private static final ICompressionCodec[] DEFLATE = new ICompressionCodec[Deflater.BEST_COMPRESSION + 1];
+
+    static {
+        for (int level = 0; level < DEFLATE.length; level++) {
+            DEFLATE[level] = new DeflateCodec(level);
+        }
+    }
+
+    private CompressionCodecs() {
+        throw new Error();
+    }
+
+    /**
+     * @param level deflate compression level, 0-9
+     *
+     * @return deflate codec with the given compression level
+     */
+    static ICompressionCodec deflate(int level) {
+        return DEFLATE[level];
+    }
+
+    /**
+     * @return the codec selected in the config, to be used for new entries
+     */
+    static ICompressionCodec fromConfig() {
+        switch (CubicChunks.Config.IntOptions.COMPRESSION_CODEC.getValue()) {
+            case 1:
+                return NONE;
+            case 2:
+                return deflate(CubicChunks.Config.IntOptions.COMPRESSION_LEVEL.getValue());
+            case 3:
+                return LZ4;
+            default:
+                return GZIP;
+        }
+    }
+
+    /**
+     * @return the codec that wrote the given entry, or null if it's unknown
+     */
+    @Nullable static ICompressionCodec forEntry(byte[] entry) {
+        if (entry.length == 0) {
+            return null;
+        }
+        return forHeader(entry[0]);
+    }
+
+    /**
+     * @return the codec that writes entries starting with the given header byte, or null if it's unknown
+     */
+    @Nullable static ICompressionCodec forHeader(byte header) {
+        if (header == GZIP.getHeader()) {
+            return GZIP;
+        }
+        if (header == NONE.getHeader()) {
+            return NONE;
+        }
+        if (header == DEFLATE_HEADER) {
+            return DEFLATE[0]; // the level doesn't matter for reading
+        }
+        if (header == LZ4.getHeader()) {
+            return LZ4;
+        }
+        return null;
+    }
+
+    /**
+     * Decompresses an entry written by any of the codecs
+     */
+    static byte[] decompress(byte[] entry) throws IOException {
+        ICompressionCodec codec = forEntry(entry);
+        if (codec == null) {
+            throw new IOException("Unknown compression codec " + (entry.length == 0 ? "(empty entry)" : Integer.toHexString(entry[0] & 0xFF)));
+        }
+        return codec.decompress(entry);
+    }
+
+    /**
+     * Decompresses an entry written by any of the codecs. GZIP entries are decompressed directly from the buffer, which
+     * avoids copying them when the buffer is memory mapped. Other codecs copy the compressed entry first.
+     */
+    static byte[] decompress(ByteBuffer entry) throws IOException {
+        if (entry.remaining() > 0 && entry.get(entry.position()) == GZIP.getHeader() && !entry.hasArray()) {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteBufferInputStream(entry.duplicate()))) {
+                return readFully(in, entry.remaining() * 4);
+            }
+        }
+        return decompress(toArray(entry));
+    }
+
+    /**
+     * @return the remaining bytes of the buffer, without copying them if the buffer is backed by an array of the right size
+     */
+    static byte[] toArray(ByteBuffer buf) {
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0 && buf.remaining() == buf.array().length) {
+            return buf.array();
+        }
+        byte[] data = new byte[buf.remaining()];
+        buf.duplicate().get(data);
+        return data;
+    }
+
+    private static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) >= 0) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override public int available() {
+            return buf.remaining();
+        }
+    }
+
+    private static class GzipCodec implements ICompressionCodec {
+
+        @Override public byte getHeader() {
+            return 0x1F;
+        }
+
+        @Override public byte[] compress(byte[] data) throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+                out.write(data);
+            }
+            return buf.toByteArray();
+        }
+
+        @Override public byte[] decompress(byte[] entry) throws IOException {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(entry))) {
+                return readFully(in, entry.length * 4);
+            }
+        }
+    }
+
+    private static class NoCompressionCodec implements ICompressionCodec {
+
+        @Override public byte getHeader() {
+            return 1;
+        }
+
+        @Override public byte[] compress(byte[] data) {
+            byte[] entry = new byte[data.length + 1];
+            entry[0] = getHeader();
+            System.arraycopy(data, 0, entry, 1, data.length);
+            return entry;
+        }
+
+        @Override public byte[] decompress(byte[] entry) {
+            return Arrays.copyOfRange(entry, 1, entry.length);
+        }
+    }
+
+    /**
+     * Raw deflate with configurable level. The uncompressed size is stored after the header, so that decompression can
+     * write directly into an array of the right size.
+     */
+    private static class DeflateCodec implements ICompressionCodec {
+
+        private final int level;
+
+        DeflateCodec(int level) {
+            this.level = level;
+        }
+
+        @Override public byte getHeader() {
+            return DEFLATE_HEADER;
+        }
+
+        @Override public byte[] compress(byte[] data) {
+            Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] out = new byte[5 + data.length + (data.length >> 8) + 64];
+                out[0] = getHeader();
+                writeInt(out, 1, data.length);
+                int size = 5;
+                while (!deflater.finished()) {
+                    if (size == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    size += deflater.deflate(out, size, out.length - size);
+                }
+                return Arrays.copyOf(out, size);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override public byte[] decompress(byte[] entry) throws IOException {
+            if (entry.length < 5) {
+                throw new IOException("Deflate entry too short: " + entry.length);
+            }
+            int size = readInt(entry, 1);
+            if (size < 0) {
+                throw new IOException("Invalid uncompressed size " + size);
+            }
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(entry, 5, entry.length - 5);
+                byte[] out = new byte[size];
+                int read = 0;
+                while (read < size && !inflater.finished()) {
+                    int n = inflater.inflate(out, read, size - read);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += n;
+                }
+                if (read != size) {
+                    throw new IOException("Expected " + size + " bytes but decompressed " + read);
+                }
+                return out;
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    static void writeInt(byte[] out, int index, int value) {
+        out[index] = (byte) (value >>> 24);
+        out[index + 1] = (byte) (value >>> 16);
+        out[index + 2] = (byte) (value >>> 8);
+        out[index + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] in, int index) {
+        return (in[index] & 0xFF) << 24 | (in[index + 1] & 0xFF) << 16 | (in[index + 2] & 0xFF) << 8 | (in[index + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,594 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.Coords;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Binary cube format, faster to write and read than NBT for block, light and heightmap data.
+ * <p>
+ * Layout, after the 2 byte header:
+ * <ul>
+ * <li>DataVersion, Forge mod data versions as NBT, cube coordinates and flags</li>
+ * <li>block palette of block state ids, followed by palette indices packed into longs. A palette of size 1 has no
+ * indices.</li>
+ * <li>block and sky light, each either absent, a single uniform value or the raw nibble array</li>
+ * <li>the last height map and edge sky light update flags</li>
+ * <li>entities, tile entities and scheduled ticks as an uncompressed NBT compound</li>
+ * </ul>
+ * The data is compressed by the configured {@link ICompressionCodec}, just like NBT entries, and can be told apart from
+ * NBT after decompression by the first byte. Version 1 entries were compressed with deflate by this class itself and
+ * are stored without a codec header.
+ * <p>
+ * Version 3 entries are split into sections, each compressed on its own, so that blocks and light that didn't change
+ * since the last save don't need to be encoded and compressed again, see {@link #encodeSectioned(CubeSnapshot,
+ * ICompressionCodec)}. These are stored without a codec header too.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeBinaryCodec {
+
+    /**
+     * First byte of each entry. Doesn't match any compression codec header, or the NBT compound tag id
+     */
+    static final byte MAGIC = (byte) 0xCC;
+    static final byte FORMAT_VERSION = 2;
+    private static final byte FORMAT_VERSION_DEFLATED = 1;
+    static final byte FORMAT_VERSION_SECTIONED = 3;
+
+    // section ids of the sectioned format, unknown sections are skipped when reading
+    private static final int SECTION_BASE = 0;
+    private static final int SECTION_BLOCKS = 1;
+    private static final int SECTION_LIGHT = 2;
+    private static final int SECTION_ENTITIES = 3;
+    private static final int SECTION_TILE_ENTITIES = 4;
+    private static final int SECTION_TICKS = 5;
+    private static final int SECTION_TYPE_COUNT = 6;
+    private static final String[] SECTION_NBT_KEYS = {null, null, null, "Entities", "TileEntities", "TileTicks"};
+
+    private static final int BLOCK_COUNT = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final int NIBBLE_BYTES = BLOCK_COUNT / 2;
+
+    private static final int FLAG_POPULATED = 1;
+    private static final int FLAG_SURFACE_TRACKED = 1 << 1;
+    private static final int FLAG_FULLY_POPULATED = 1 << 2;
+    private static final int FLAG_INIT_LIGHT_DONE = 1 << 3;
+    private static final int FLAG_HAS_BLOCKS = 1 << 4;
+
+    private static final byte NIBBLE_ABSENT = 0;
+    private static final byte NIBBLE_UNIFORM = 1;
+    private static final byte NIBBLE_RAW = 2;
+
+    static boolean isBinary(byte[] data) {
+        return data.length > 0 && data[0] == MAGIC;
+    }
+
+    static boolean isBinary(ByteBuffer data) {
+        return data.remaining() > 0 && data.get(data.position()) == MAGIC;
+    }
+
+    static boolean isSectioned(byte[] data) {
+        return data.length > 1 && data[0] == MAGIC && data[1] == FORMAT_VERSION_SECTIONED;
+    }
+
+    static byte[] encode(CubeSnapshot cube) throws IOException {
+        NBTTagCompound versionData = new NBTTagCompound();
+        FMLCommonHandler.instance().getDataFixer().writeVersionData(versionData);
+        return encode(cube, FMLCommonHandler.instance().getDataFixer().version, versionData);
+    }
+
+    static byte[] encode(CubeSnapshot cube, int dataVersion, NBTTagCompound versionData) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(8192);
+        buf.write(MAGIC);
+        buf.write(FORMAT_VERSION);
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            out.writeInt(dataVersion);
+            CompressedStreamTools.write(versionData, out);
+
+            out.writeInt(cube.x);
+            out.writeInt(cube.y);
+            out.writeInt(cube.z);
+
+            out.writeByte(flags(cube));
+
+            if (cube.blocks != null) {
+                writeBlocks(cube.blocks, out);
+                writeNibbles(cube.blockLight, out);
+                writeNibbles(cube.skyLight, out);
+            }
+
+            writeLightingInfo(cube, out);
+
+            CompressedStreamTools.write(cube.serverThreadData, out);
+        }
+        return buf.toByteArray();
+    }
+
+    static byte[] encodeSectioned(CubeSnapshot cube, ICompressionCodec codec) throws IOException {
+        NBTTagCompound versionData = new NBTTagCompound();
+        FMLCommonHandler.instance().getDataFixer().writeVersionData(versionData);
+        return encodeSectioned(cube, FMLCommonHandler.instance().getDataFixer().version, versionData, codec);
+    }
+
+    /**
+     * Writes a cube in the sectioned format. Each section is compressed with the given codec on its own. Blocks and light
+     * are taken from the {@link CubeSnapshot#savedSections} of the cube if they were encoded from the same section
+     * version before, and stored there otherwise.
+     * <p>
+     * Layout, after the 2 byte header: section count, then for each section its id byte, length and compressed data.
+     * The base section, with everything except blocks, light, entities, tile entities and scheduled ticks, is always
+     * the first one.
+     */
+    static byte[] encodeSectioned(CubeSnapshot cube, int dataVersion, NBTTagCompound versionData, ICompressionCodec codec)
+            throws IOException {
+        IBlockState[] blocks = cube.blocks;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(4096);
+        buf.write(MAGIC);
+        buf.write(FORMAT_VERSION_SECTIONED);
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            out.writeByte(blocks == null ? SECTION_TYPE_COUNT - 2 : SECTION_TYPE_COUNT);
+            writeSection(SECTION_BASE, codec.compress(encodeSection(base -> {
+                base.writeInt(dataVersion);
+                CompressedStreamTools.write(versionData, base);
+                base.writeInt(cube.x);
+                base.writeInt(cube.y);
+                base.writeInt(cube.z);
+                base.writeByte(flags(cube));
+                writeLightingInfo(cube, base);
+            })), out);
+            if (blocks != null) {
+                writeSection(SECTION_BLOCKS, getOrEncode(cube, Cube.SECTION_BLOCKS, cube.blocksVersion, codec,
+                        section -> writeBlocks(blocks, section)), out);
+                writeSection(SECTION_LIGHT, getOrEncode(cube, Cube.SECTION_LIGHT, cube.lightVersion, codec, section -> {
+                    writeNibbles(cube.blockLight, section);
+                    writeNibbles(cube.skyLight, section);
+                }), out);
+            }
+            // these are already NBT and written on every save anyway, there is nothing to reuse
+            for (int id = SECTION_ENTITIES; id <= SECTION_TICKS; id++) {
+                NBTTagCompound nbt = new NBTTagCompound();
+                String key = SECTION_NBT_KEYS[id];
+                if (cube.serverThreadData.hasKey(key)) {
+                    nbt.setTag(key, cube.serverThreadData.getTag(key));
+                }
+                writeSection(id, codec.compress(encodeSection(section -> CompressedStreamTools.write(nbt, section))), out);
+            }
+        }
+        return buf.toByteArray();
+    }
+
+    private static byte[] getOrEncode(CubeSnapshot cube, int cubeSection, long version, ICompressionCodec codec, SectionWriter writer)
+            throws IOException {
+        CubeSectionCache cache = cube.savedSections;
+        byte[] data = cache == null ? null : cache.get(cubeSection, version);
+        if (data == null) {
+            data = codec.compress(encodeSection(writer));
+            if (cache != null) {
+                cache.put(cubeSection, version, data);
+            }
+        }
+        return data;
+    }
+
+    private static byte[] encodeSection(SectionWriter writer) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(2048);
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            writer.write(out);
+        }
+        return buf.toByteArray();
+    }
+
+    private static void writeSection(int id, byte[] data, DataOutputStream out) throws IOException {
+        out.writeByte(id);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static int flags(CubeSnapshot cube) {
+        int flags = 0;
+        flags |= cube.populated ? FLAG_POPULATED : 0;
+        flags |= cube.surfaceTracked ? FLAG_SURFACE_TRACKED : 0;
+        flags |= cube.fullyPopulated ? FLAG_FULLY_POPULATED : 0;
+        flags |= cube.initLightDone ? FLAG_INIT_LIGHT_DONE : 0;
+        flags |= cube.blocks != null ? FLAG_HAS_BLOCKS : 0;
+        return flags;
+    }
+
+    private static void writeLightingInfo(CubeSnapshot cube, DataOutputStream out) throws IOException {
+        for (int height : cube.lastHeightMap) {
+            out.writeInt(height);
+        }
+        out.writeByte(cube.edgeNeedSkyLightUpdate);
+    }
+
+    /**
+     * Reads a cube written by {@link #encode(CubeSnapshot)} or {@link #encodeSectioned(CubeSnapshot, ICompressionCodec)}.
+     *
+     * @param data the decompressed entry, including header
+     * @param hasSkyLight whether the world has sky light, sky light data is dropped if it doesn't
+     *
+     * @return the decoded cube
+     */
+    static DecodedCube decode(byte[] data, boolean hasSkyLight) throws IOException {
+        if (!isBinary(data)) {
+            throw new IOException("Not a binary cube entry");
+        }
+        if (data[1] == FORMAT_VERSION_SECTIONED) {
+            return decodeSectioned(data, hasSkyLight);
+        }
+        InputStream body = new ByteArrayInputStream(data, 2, data.length - 2);
+        if (data[1] == FORMAT_VERSION_DEFLATED) {
+            body = new BufferedInputStream(new InflaterInputStream(body));
+        } else if (data[1] != FORMAT_VERSION) {
+            throw new IOException("Unsupported binary cube format version " + data[1]);
+        }
+        try (DataInputStream in = new DataInputStream(body)) {
+            NBTTagCompound cubeNbt = new NBTTagCompound();
+            cubeNbt.setInteger("DataVersion", in.readInt());
+            NBTTagCompound versionData = CompressedStreamTools.read(in, NBTSizeTracker.INFINITE);
+            for (String key : versionData.getKeySet()) {
+                cubeNbt.setTag(key, versionData.getTag(key));
+            }
+
+            int x = in.readInt();
+            int y = in.readInt();
+            int z = in.readInt();
+            int flags = in.readUnsignedByte();
+
+            ExtendedBlockStorage ebs = null;
+            if ((flags & FLAG_HAS_BLOCKS) != 0) {
+                ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(y), hasSkyLight);
+                readBlocks(ebs, in);
+                byte[] blockLight = readNibbles(in);
+                if (blockLight != null) {
+                    ebs.setBlockLight(new NibbleArray(blockLight));
+                }
+                byte[] skyLight = readNibbles(in);
+                if (skyLight != null && hasSkyLight) {
+                    ebs.setSkyLight(new NibbleArray(skyLight));
+                }
+            }
+
+            int[] lastHeightMap = readLastHeightMap(in);
+            byte edgeNeedSkyLightUpdate = in.readByte();
+
+            NBTTagCompound level = CompressedStreamTools.read(in, NBTSizeTracker.INFINITE);
+            cubeNbt.setTag("Level", level);
+            setBaseTags(level, x, y, z, flags, lastHeightMap, edgeNeedSkyLightUpdate);
+
+            return new DecodedCube(cubeNbt, ebs);
+        }
+    }
+
+    private static DecodedCube decodeSectioned(byte[] data, boolean hasSkyLight) throws IOException {
+        byte[][] sections = new byte[SECTION_TYPE_COUNT][];
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 2, data.length - 2))) {
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                int id = in.readUnsignedByte();
+                int length = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    throw new IOException("Invalid length " + length + " of cube section " + id);
+                }
+                byte[] section = new byte[length];
+                in.readFully(section);
+                if (id < SECTION_TYPE_COUNT) {
+                    sections[id] = CompressionCodecs.decompress(section);
+                }
+            }
+        }
+        if (sections[SECTION_BASE] == null) {
+            throw new IOException("Sectioned cube entry without base section");
+        }
+
+        NBTTagCompound cubeNbt = new NBTTagCompound();
+        NBTTagCompound level = new NBTTagCompound();
+        cubeNbt.setTag("Level", level);
+        ExtendedBlockStorage ebs = null;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(sections[SECTION_BASE]))) {
+            cubeNbt.setInteger("DataVersion", in.readInt());
+            NBTTagCompound versionData = CompressedStreamTools.read(in, NBTSizeTracker.INFINITE);
+            for (String key : versionData.getKeySet()) {
+                cubeNbt.setTag(key, versionData.getTag(key));
+            }
+
+            int x = in.readInt();
+            int y = in.readInt();
+            int z = in.readInt();
+            int flags = in.readUnsignedByte();
+            int[] lastHeightMap = readLastHeightMap(in);
+            byte edgeNeedSkyLightUpdate = in.readByte();
+            setBaseTags(level, x, y, z, flags, lastHeightMap, edgeNeedSkyLightUpdate);
+
+            if ((flags & FLAG_HAS_BLOCKS) != 0) {
+                if (sections[SECTION_BLOCKS] == null || sections[SECTION_LIGHT] == null) {
+                    throw new IOException("Sectioned cube entry without block or light section");
+                }
+                ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(y), hasSkyLight);
+                try (DataInputStream blocks = new DataInputStream(new ByteArrayInputStream(sections[SECTION_BLOCKS]))) {
+                    readBlocks(ebs, blocks);
+                }
+                try (DataInputStream light = new DataInputStream(new ByteArrayInputStream(sections[SECTION_LIGHT]))) {
+                    byte[] blockLight = readNibbles(light);
+                    if (blockLight != null) {
+                        ebs.setBlockLight(new NibbleArray(blockLight));
+                    }
+                    byte[] skyLight = readNibbles(light);
+                    if (skyLight != null && hasSkyLight) {
+                        ebs.setSkyLight(new NibbleArray(skyLight));
+                    }
+                }
+            }
+        }
+
+        for (int id = SECTION_ENTITIES; id <= SECTION_TICKS; id++) {
+            if (sections[id] == null) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(sections[id]))) {
+                NBTTagCompound nbt = CompressedStreamTools.read(in, NBTSizeTracker.INFINITE);
+                for (String key : nbt.getKeySet()) {
+                    level.setTag(key, nbt.getTag(key));
+                }
+            }
+        }
+        return new DecodedCube(cubeNbt, ebs);
+    }
+
+    private static int[] readLastHeightMap(DataInputStream in) throws IOException {
+        int[] lastHeightMap = new int[Cube.SIZE * Cube.SIZE];
+        for (int i = 0; i < lastHeightMap.length; i++) {
+            lastHeightMap[i] = in.readInt();
+        }
+        return lastHeightMap;
+    }
+
+    /**
+     * Sets the same base tags as the NBT format, so that the rest of the loading code doesn't need to care
+     */
+    private static void setBaseTags(NBTTagCompound level, int x, int y, int z, int flags, int[] lastHeightMap, byte edgeNeedSkyLightUpdate) {
+        level.setByte("v", (byte) 1);
+        level.setInteger("x", x);
+        level.setInteger("y", y);
+        level.setInteger("z", z);
+        level.setBoolean("populated", (flags & FLAG_POPULATED) != 0);
+        level.setBoolean("isSurfaceTracked", (flags & FLAG_SURFACE_TRACKED) != 0);
+        level.setBoolean("fullyPopulated", (flags & FLAG_FULLY_POPULATED) != 0);
+        level.setBoolean("initLightDone", (flags & FLAG_INIT_LIGHT_DONE) != 0);
+
+        NBTTagCompound lightingInfo = new NBTTagCompound();
+        level.setTag("LightingInfo", lightingInfo);
+        lightingInfo.setIntArray("LastHeightMap", lastHeightMap);
+        lightingInfo.setByte("EdgeNeedSkyLightUpdate", edgeNeedSkyLightUpdate);
+    }
+
+    private static void writeBlocks(IBlockState[] blocks, DataOutputStream out) throws IOException {
+        Map<IBlockState, Integer> paletteMap = new IdentityHashMap<>();
+        int[] palette = new int[16];
+        int[] indices = new int[BLOCK_COUNT];
+
+        IBlockState lastState = null;
+        int lastIndex = -1;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            IBlockState state = blocks[i];
+            // long runs of the same block are very common
+            if (state != lastState) {
+                Integer index = paletteMap.get(state);
+                if (index == null) {
+                    index = paletteMap.size();
+                    paletteMap.put(state, index);
+                    if (index == palette.length) {
+                        int[] newPalette = new int[palette.length * 2];
+                        System.arraycopy(palette, 0, newPalette, 0, palette.length);
+                        palette = newPalette;
+                    }
+                    palette[index] = Block.BLOCK_STATE_IDS.get(state);
+                }
+                lastState = state;
+                lastIndex = index;
+            }
+            indices[i] = lastIndex;
+        }
+
+        int paletteSize = paletteMap.size();
+        out.writeShort(paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            out.writeInt(palette[i]);
+        }
+        if (paletteSize == 1) {
+            return; // uniform cube
+        }
+        int bits = bitsFor(paletteSize);
+        for (long l : pack(indices, bits)) {
+            out.writeLong(l);
+        }
+    }
+
+    private static void readBlocks(ExtendedBlockStorage ebs, DataInputStream in) throws IOException {
+        int paletteSize = in.readUnsignedShort();
+        if (paletteSize == 0 || paletteSize > BLOCK_COUNT) {
+            throw new IOException("Invalid block palette size " + paletteSize);
+        }
+        IBlockState[] palette = new IBlockState[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readInt());
+            palette[i] = state == null ? Blocks.AIR.getDefaultState() : state;
+        }
+        IBlockState air = Blocks.AIR.getDefaultState();
+        if (paletteSize == 1) {
+            if (palette[0] != air) {
+                for (int i = 0; i < BLOCK_COUNT; i++) {
+                    ebs.set(i & 15, i >> 8 & 15, i >> 4 & 15, palette[0]);
+                }
+            }
+            return;
+        }
+        int bits = bitsFor(paletteSize);
+        long[] packed = new long[packedLength(bits)];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = in.readLong();
+        }
+        int[] indices = unpack(packed, bits, BLOCK_COUNT);
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            int index = indices[i];
+            if (index >= paletteSize) {
+                throw new IOException("Block palette index " + index + " out of range for palette size " + paletteSize);
+            }
+            IBlockState state = palette[index];
+            // new storage is already filled with air
+            if (state != air) {
+                ebs.set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+            }
+        }
+    }
+
+    private static void writeNibbles(@Nullable byte[] data, DataOutputStream out) throws IOException {
+        if (data == null) {
+            out.writeByte(NIBBLE_ABSENT);
+            return;
+        }
+        byte first = data[0];
+        boolean uniform = (first & 0xF) == (first >>> 4 & 0xF);
+        for (int i = 1; uniform && i < data.length; i++) {
+            uniform = data[i] == first;
+        }
+        if (uniform) {
+            out.writeByte(NIBBLE_UNIFORM);
+            out.writeByte(first);
+        } else {
+            out.writeByte(NIBBLE_RAW);
+            out.write(data);
+        }
+    }
+
+    @Nullable
+    private static byte[] readNibbles(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NIBBLE_ABSENT:
+                return null;
+            case NIBBLE_UNIFORM: {
+                byte[] data = new byte[NIBBLE_BYTES];
+                byte value = in.readByte();
+                if (value != 0) {
+                    Arrays.fill(data, value);
+                }
+                return data;
+            }
+            case NIBBLE_RAW: {
+                byte[] data = new byte[NIBBLE_BYTES];
+                in.readFully(data);
+                return data;
+            }
+            default:
+                throw new IOException("Unknown nibble array type " + type);
+        }
+    }
+
+    static int bitsFor(int paletteSize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    private static int packedLength(int bits) {
+        return (BLOCK_COUNT * bits + 63) >>> 6;
+    }
+
+    static long[] pack(int[] values, int bits) {
+        long[] out = new long[(values.length * bits + 63) >>> 6];
+        for (int i = 0; i < values.length; i++) {
+            int bitIndex = i * bits;
+            int word = bitIndex >>> 6;
+            int offset = bitIndex & 63;
+            out[word] |= (long) values[i] << offset;
+            if (offset + bits > 64) {
+                out[word + 1] |= (long) values[i] >>> (64 - offset);
+            }
+        }
+        return out;
+    }
+
+    static int[] unpack(long[] packed, int bits, int count) {
+        int[] out = new int[count];
+        long mask = (1L << bits) - 1;
+        for (int i = 0; i < count; i++) {
+            int bitIndex = i * bits;
+            int word = bitIndex >>> 6;
+            int offset = bitIndex & 63;
+            long value = packed[word] >>> offset;
+            if (offset + bits > 64) {
+                value |= packed[word + 1] << (64 - offset);
+            }
+            out[i] = (int) (value & mask);
+        }
+        return out;
+    }
+
+    @FunctionalInterface
+    private interface SectionWriter {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A cube read from the binary format. The NBT has the same structure as the NBT format, but without block sections,
+     * the blocks are already decoded into {@link #storage}.
+     */
+    static class DecodedCube {
+
+        final NBTTagCompound nbt;
+        @Nullable final ExtendedBlockStorage storage;
+
+        DecodedCube(NBTTagCompound nbt, @Nullable ExtendedBlockStorage storage) {
+            this.nbt = nbt;
+            this.storage = storage;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.util.datafix.FixTypes;
+import net.minecraftforge.common.util.CompoundDataFixer;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Runs the DataFixer on loaded cubes and columns. Forge runs all data walkers even when the data is already up to date,
+ * which is expensive for cubes with many entities and tile entities, so data written by the current versions of
+ * Minecraft and all mods with data fixers is returned unchanged.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class CubeDataFixer {
+
+    private CubeDataFixer() {
+        throw new Error();
+    }
+
+    static NBTTagCompound process(NBTTagCompound nbt) {
+        return process(FMLCommonHandler.instance().getDataFixer(), nbt);
+    }
+
+    static NBTTagCompound process(DataFixer fixer, NBTTagCompound nbt) {
+        if (isUpToDate(fixer, nbt)) {
+            return nbt;
+        }
+        return fixer.process(FixTypes.CHUNK, nbt);
+    }
+
+    /**
+     * @return true if the data has been written with the current data version of Minecraft and every mod that
+     * registered data fixers
+     */
+    static boolean isUpToDate(DataFixer fixer, NBTTagCompound nbt) {
+        if (!nbt.hasKey("DataVersion", 99) || nbt.getInteger("DataVersion") != fixer.version) {
+            return false;
+        }
+        if (!(fixer instanceof CompoundDataFixer)) {
+            return true;
+        }
+        NBTTagCompound current = new NBTTagCompound();
+        ((CompoundDataFixer) fixer).writeVersionData(current);
+        for (String key : current.getKeySet()) {
+            NBTBase tag = nbt.getTag(key);
+            // also fails when a mod has been added since the data was written, its data has to be fixed too
+            if (tag == null || !tag.equals(current.getTag(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
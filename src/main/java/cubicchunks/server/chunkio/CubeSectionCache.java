@@ -0,0 +1,134 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Encoded, compressed sections of a cube from its last save, each tagged with the section version it was encoded from.
+ * <p>
+ * Sections are encoded on the IO thread while the server thread keeps modifying the cube, so the version is the one
+ * recorded by the {@link CubeSnapshot}, not the current one. Data is only replaced by data of a newer version, in case
+ * two saves of the same cube are encoded out of order.
+ * <p>
+ * The data is only useful while the section doesn't change, so it's dropped as soon as the section is marked dirty, and
+ * when the cube is unloaded. Cubes that don't change after being saved still keep a few kilobytes each, so the total
+ * size of all caches is limited to {@link #MAX_TOTAL_BYTES}. Sections that don't fit are simply encoded again on the
+ * next save.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class CubeSectionCache {
+
+    private static final long MAX_TOTAL_BYTES = 32 * 1024 * 1024;
+    private static final AtomicLong totalBytes = new AtomicLong();
+
+    private final long[] versions;
+    private final byte[][] data;
+    // set when the cube is unloaded, nothing is cached anymore after that
+    private boolean closed;
+
+    public CubeSectionCache(int sectionCount) {
+        this.versions = new long[sectionCount];
+        this.data = new byte[sectionCount][];
+    }
+
+    /**
+     * @return the size of the encoded sections cached for all cubes, in bytes
+     */
+    public static long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * @param section bit of the section, as used by {@link cubicchunks.world.cube.Cube#markDirty(int)}
+     * @param version the section version the data must have been encoded from
+     *
+     * @return the encoded section, or null if there is none for that version
+     */
+    @Nullable synchronized byte[] get(int section, long version) {
+        int i = Integer.numberOfTrailingZeros(section);
+        return versions[i] == version ? data[i] : null;
+    }
+
+    synchronized void put(int section, long version, byte[] encoded) {
+        int i = Integer.numberOfTrailingZeros(section);
+        if (closed || version < versions[i]) {
+            return;
+        }
+        long oldSize = data[i] == null ? 0 : data[i].length;
+        if (totalBytes.get() - oldSize + encoded.length > MAX_TOTAL_BYTES) {
+            // keep the version, so that older data isn't cached either
+            versions[i] = version;
+            setData(i, null);
+            return;
+        }
+        versions[i] = version;
+        setData(i, encoded);
+    }
+
+    /**
+     * Drops the data of a section that changed.
+     *
+     * @param section bit of the section, as used by {@link cubicchunks.world.cube.Cube#markDirty(int)}
+     * @param version the new version of the section
+     */
+    public synchronized void drop(int section, long version) {
+        int i = Integer.numberOfTrailingZeros(section);
+        // saves of older versions that are still being encoded won't cache their data
+        versions[i] = Math.max(versions[i], version);
+        setData(i, null);
+    }
+
+    /**
+     * Drops the data of all sections, to free memory.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < data.length; i++) {
+            setData(i, null);
+        }
+    }
+
+    /**
+     * Drops the data of all sections and stops caching new data. Called when the cube is unloaded.
+     */
+    public synchronized void close() {
+        clear();
+        closed = true;
+    }
+
+    private void setData(int i, @Nullable byte[] newData) {
+        long oldSize = data[i] == null ? 0 : data[i].length;
+        long newSize = newData == null ? 0 : newData.length;
+        if (oldSize != newSize) {
+            totalBytes.addAndGet(newSize - oldSize);
+        }
+        data[i] = newData;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.Coords;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A copy of everything needed to write a cube, taken on the server thread so that building the NBT tree and
+ * compressing it can be done on the IO thread.
+ * <p>
+ * Blocks and light are copied as flat arrays, which is much cheaper than building the vanilla NBT representation.
+ * Entities, tile entities and scheduled ticks can only be safely accessed from the server thread, so they are written
+ * to NBT immediately.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeSnapshot {
+
+    private static final int BLOCK_COUNT = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    // average memory used by a single entity, tile entity or tick entry
+    private static final int NBT_LIST_ENTRY_SIZE = 512;
+
+    final int x, y, z;
+
+    final boolean populated;
+    final boolean surfaceTracked;
+    final boolean fullyPopulated;
+    final boolean initLightDone;
+
+    /**
+     * Block states indexed by {@code y << 8 | z << 4 | x}, or null if the cube has no block storage
+     */
+    @Nullable final IBlockState[] blocks;
+    @Nullable final byte[] blockLight;
+    @Nullable final byte[] skyLight;
+
+    final int[] lastHeightMap;
+    final byte edgeNeedSkyLightUpdate;
+
+    /**
+     * Entities, tile entities and scheduled ticks, already written by the server thread
+     */
+    final NBTTagCompound serverThreadData;
+
+    /**
+     * Where sections encoded from this snapshot are kept for the next save of the same cube, or null if the snapshot
+     * doesn't come from a loaded cube
+     */
+    @Nullable final CubeSectionCache savedSections;
+    /**
+     * Section versions of the cube at the time the snapshot was taken, see {@link Cube#getSectionVersion(int)}
+     */
+    final long blocksVersion;
+    final long lightVersion;
+
+    @Nullable private NBTTagCompound nbt;
+
+    CubeSnapshot(Cube cube, boolean hasSkyLight, NBTTagCompound serverThreadData) {
+        this.x = cube.getX();
+        this.y = cube.getY();
+        this.z = cube.getZ();
+
+        this.populated = cube.isPopulated();
+        this.surfaceTracked = cube.isSurfaceTracked();
+        this.fullyPopulated = cube.isFullyPopulated();
+        this.initLightDone = cube.isInitialLightingDone();
+
+        ExtendedBlockStorage ebs = cube.getStorage();
+        if (ebs == null) {
+            this.blocks = null;
+            this.blockLight = null;
+            this.skyLight = null;
+        } else {
+            this.blocks = new IBlockState[BLOCK_COUNT];
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                this.blocks[i] = ebs.get(i & 15, i >> 8 & 15, i >> 4 & 15);
+            }
+            this.blockLight = ebs.getBlockLight().getData().clone();
+            this.skyLight = hasSkyLight ? ebs.getSkyLight().getData().clone() : null;
+        }
+
+        this.lastHeightMap = cube.getColumn().getHeightMap().clone();
+        byte edges = 0;
+        for (int i = 0; i < cube.edgeNeedSkyLightUpdate.length; i++) {
+            if (cube.edgeNeedSkyLightUpdate[i]) {
+                edges |= 1 << i;
+            }
+        }
+        this.edgeNeedSkyLightUpdate = edges;
+        this.serverThreadData = serverThreadData;
+
+        this.savedSections = cube.getSavedSections();
+        this.blocksVersion = cube.getSectionVersion(Cube.SECTION_BLOCKS);
+        this.lightVersion = cube.getSectionVersion(Cube.SECTION_LIGHT);
+    }
+
+    /**
+     * Constructor to be used when there is no cube to copy the data from, for example in benchmarks
+     */
+    CubeSnapshot(int x, int y, int z, boolean populated, boolean surfaceTracked, boolean fullyPopulated, boolean initLightDone,
+            @Nullable IBlockState[] blocks, @Nullable byte[] blockLight, @Nullable byte[] skyLight,
+            int[] lastHeightMap, byte edgeNeedSkyLightUpdate, NBTTagCompound serverThreadData) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.populated = populated;
+        this.surfaceTracked = surfaceTracked;
+        this.fullyPopulated = fullyPopulated;
+        this.initLightDone = initLightDone;
+        this.blocks = blocks;
+        this.blockLight = blockLight;
+        this.skyLight = skyLight;
+        this.lastHeightMap = lastHeightMap;
+        this.edgeNeedSkyLightUpdate = edgeNeedSkyLightUpdate;
+        this.serverThreadData = serverThreadData;
+        this.savedSections = null;
+        this.blocksVersion = 0;
+        this.lightVersion = 0;
+    }
+
+    /**
+     * Creates a snapshot of a cube read by {@link CubeBinaryCodec#decode(byte[], boolean)}, so that it can be written
+     * again without creating a cube.
+     */
+    static CubeSnapshot fromDecoded(CubeBinaryCodec.DecodedCube decoded) {
+        NBTTagCompound level = decoded.nbt.getCompoundTag("Level");
+        ExtendedBlockStorage ebs = decoded.storage;
+        IBlockState[] blocks = null;
+        byte[] blockLight = null;
+        byte[] skyLight = null;
+        if (ebs != null) {
+            blocks = new IBlockState[BLOCK_COUNT];
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                blocks[i] = ebs.get(i & 15, i >> 8 & 15, i >> 4 & 15);
+            }
+            blockLight = ebs.getBlockLight().getData();
+            skyLight = ebs.getSkyLight() == null ? null : ebs.getSkyLight().getData();
+        }
+        NBTTagCompound serverThreadData = new NBTTagCompound();
+        for (String key : new String[]{"Entities", "TileEntities", "TileTicks"}) {
+            if (level.hasKey(key)) {
+                serverThreadData.setTag(key, level.getTag(key));
+            }
+        }
+        NBTTagCompound lightingInfo = level.getCompoundTag("LightingInfo");
+        return new CubeSnapshot(level.getInteger("x"), level.getInteger("y"), level.getInteger("z"),
+                level.getBoolean("populated"), level.getBoolean("isSurfaceTracked"), level.getBoolean("fullyPopulated"),
+                level.getBoolean("initLightDone"), blocks, blockLight, skyLight,
+                lightingInfo.getIntArray("LastHeightMap"), lightingInfo.getByte("EdgeNeedSkyLightUpdate"), serverThreadData);
+    }
+
+    /**
+     * Builds the vanilla-compatible block arrays from the copied block states. Safe to call from any thread, the block
+     * state id map is not modified after registries are frozen.
+     *
+     * @param blockIds output array for the lower 8 bits of block ids
+     * @param data output array for block metadata
+     *
+     * @return the "Add" array with upper 4 bits of block ids, or null if not needed
+     */
+    @Nullable NibbleArray getDataForNBT(byte[] blockIds, NibbleArray data) {
+        assert blocks != null;
+        BlockStateContainer container = new BlockStateContainer();
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            container.set(i & 15, i >> 8 & 15, i >> 4 & 15, blocks[i]);
+        }
+        return container.getDataForNBT(blockIds, data);
+    }
+
+    /**
+     * @return true if the cube has no blocks, entities, tile entities or scheduled ticks, is fully generated and lit, and
+     * all of it is above the top block of its column. Such a cube can be recreated from nothing when it's loaded again.
+     */
+    boolean isEmptyAboveSurface() {
+        if (blocks != null || !populated || !surfaceTracked || !fullyPopulated || !initLightDone || edgeNeedSkyLightUpdate != 0) {
+            return false;
+        }
+        for (String key : serverThreadData.getKeySet()) {
+            NBTBase tag = serverThreadData.getTag(key);
+            if (tag instanceof NBTTagList && ((NBTTagList) tag).tagCount() != 0) {
+                return false;
+            }
+        }
+        int minBlockY = Coords.cubeToMinBlock(y);
+        for (int height : lastHeightMap) {
+            // height is the position above the top block
+            if (height > minBlockY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a rough estimate of the amount of memory retained by this snapshot, in bytes. Used to limit the size of
+     * the save queue, so it doesn't need to be exact.
+     */
+    long estimateSize() {
+        long size = 256 + lastHeightMap.length * 4;
+        if (blocks != null) {
+            // assume compressed object references, the states themselves are shared
+            size += 16 + blocks.length * 4;
+        }
+        if (blockLight != null) {
+            size += 16 + blockLight.length;
+        }
+        if (skyLight != null) {
+            size += 16 + skyLight.length;
+        }
+        return size + estimateListsSize(serverThreadData);
+    }
+
+    /**
+     * Returns a rough estimate of the amount of memory retained by entities, tile entities and scheduled ticks written
+     * to the given compound.
+     */
+    static long estimateListsSize(NBTTagCompound nbt) {
+        long size = 0;
+        for (String key : nbt.getKeySet()) {
+            NBTBase tag = nbt.getTag(key);
+            if (tag instanceof NBTTagList) {
+                size += ((NBTTagList) tag).tagCount() * NBT_LIST_ENTRY_SIZE;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the NBT representation of this cube, building it on first access. This is done by the IO thread, but can
+     * also happen on a cube load thread when the cube is loaded again before it's written.
+     */
+    synchronized NBTTagCompound getNbt() {
+        if (nbt == null) {
+            nbt = IONbtWriter.write(this);
+        }
+        return nbt;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compresses cube and column entries before they are written to region files. Each entry starts with a header byte
+ * identifying the codec, so entries written with different codecs can be mixed in one world.
+ *
+ * @see CompressionCodecs
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+interface ICompressionCodec {
+
+    /**
+     * @return the first byte of every entry written by this codec
+     */
+    byte getHeader();
+
+    /**
+     * Compresses the data and prepends the header byte.
+     *
+     * @param data uncompressed data
+     *
+     * @return the entry to be written
+     */
+    byte[] compress(byte[] data) throws IOException;
+
+    /**
+     * Decompresses an entry written by {@link #compress(byte[])}.
+     *
+     * @param entry the whole entry, including header byte
+     *
+     * @return the uncompressed data
+     */
+    byte[] decompress(byte[] entry) throws IOException;
+}
@@ -46,6 +46,40 @@ public interface ICubeIO extends IThreadedFileIO {
 
 	void saveCube(Cube cube);
 
+	/**
+	 * Saves a column that is being unloaded if it needs saving, and may keep it in memory so that loading it again soon
+	 * is cheap.
+	 */
+	void unloadColumn(IColumn column);
+
+	/**
+	 * Saves a cube that is being unloaded if it needs saving, and may keep it in memory so that loading it again soon
+	 * is cheap. The block storage of the cube may be reused, so the cube must not be used anymore.
+	 */
+	void unloadCube(Cube cube);
+
+	/**
+	 * @return the cache of recently unloaded cubes and columns
+	 */
+	ColdCubeCache getColdCache();
+
+	/**
+	 * Reads cubes {@code minCubeY} to {@code maxCubeY} of a column that is being loaded, so that loading them afterwards
+	 * doesn't need to access the disk. Prefetched cubes that aren't loaded soon are forgotten.
+	 */
+	void prefetchCubes(IColumn column, int minCubeY, int maxCubeY);
+
+	/**
+	 * Returns true when the cubes and columns waiting to be saved use more memory than allowed. No more cubes should be
+	 * unloaded until the save queue shrinks, as unloading them would only add more data to the queue.
+	 */
+	boolean isSaveQueueFull();
+
+	/**
+	 * Returns true if the cube was saved, without loading it. Can be called from any thread, and may read from disk.
+	 */
+	boolean cubeExists(int cubeX, int cubeY, int cubeZ) throws IOException;
+
 	/**
 	 * Stores partially read cube, before sync read but after async read
 	 */
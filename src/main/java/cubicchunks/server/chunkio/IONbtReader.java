@@ -87,6 +87,7 @@ public class IONbtReader {
 
         // read the rest of the column properties
         column.setInhabitedTime(nbt.getLong("InhabitedTime"));
+        column.getEmptyCubeIndex().readFrom(nbt.getIntArray("EmptyCubes"));
         return column;
     }
 
@@ -100,6 +101,16 @@ public class IONbtReader {
 
     @Nullable
     static Cube readCubeAsyncPart(IColumn column, final int cubeX, final int cubeY, final int cubeZ, NBTTagCompound nbt) {
+        return readCubeAsyncPart(column, cubeX, cubeY, cubeZ, nbt, null);
+    }
+
+    /**
+     * Reads the async part of a cube, using already decoded block storage if the entry was in a format that stores
+     * blocks outside of NBT.
+     */
+    @Nullable
+    static Cube readCubeAsyncPart(IColumn column, final int cubeX, final int cubeY, final int cubeZ, NBTTagCompound nbt,
+            @Nullable ExtendedBlockStorage storage) {
         if (column.getX() != cubeX || column.getZ() != cubeZ) {
             throw new IllegalArgumentException(String.format("Invalid column (%d, %d) for cube at (%d, %d, %d)",
                     column.getX(), column.getZ(), cubeX, cubeY, cubeZ));
@@ -110,7 +121,11 @@ public class IONbtReader {
         if (cube == null) {
             return null;
         }
-        readBlocks(level, world, cube);
+        if (storage != null) {
+            cube.setStorage(storage);
+        } else {
+            readBlocks(level, world, cube);
+        }
 
         return cube;
     }
@@ -42,14 +42,15 @@ import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
-import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.world.ChunkDataEvent;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -61,8 +62,15 @@ import javax.annotation.ParametersAreNonnullByDefault;
 class IONbtWriter {
     
     static byte[] writeNbtBytes(NBTTagCompound nbt) throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        CompressedStreamTools.writeCompressed(nbt, buf);
+        return CompressionCodecs.fromConfig().compress(writeUncompressedNbtBytes(nbt));
+    }
+
+    static byte[] writeUncompressedNbtBytes(NBTTagCompound nbt) throws IOException {
+        // most cubes are a few kB uncompressed, avoid growing the buffer many times
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(16 * 1024);
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            CompressedStreamTools.write(nbt, out);
+        }
         return buf.toByteArray();
     }
 
@@ -80,19 +88,111 @@ class IONbtWriter {
     }
 
     static NBTTagCompound write(final Cube cube) {
-        NBTTagCompound cubeNbt = new NBTTagCompound();
-        //Added to preserve compatibility with vanilla NBT chunk format.
+        return write(snapshot(cube));
+    }
+
+    /**
+     * Copies all data needed to write the cube. Must be called from the server thread, the returned snapshot can be
+     * written to NBT from any thread.
+     */
+    static CubeSnapshot snapshot(final Cube cube) {
+        return new CubeSnapshot(cube, cube.getCubicWorld().getProvider().hasSkyLight(), writeServerThreadData(cube));
+    }
+
+    /**
+     * Writes entities, tile entities and scheduled ticks of the cube, which can only be accessed from the server thread.
+     */
+    static NBTTagCompound writeServerThreadData(final Cube cube) {
+        NBTTagCompound level = new NBTTagCompound();
+        writeEntities(cube, level);
+        writeTileEntities(cube, level);
+        writeScheduledTicks(cube, level);
+        return level;
+    }
+
+    /**
+     * Writes everything except blocks and light of a cube that is being unloaded, to be read again together with the
+     * block storage of the same cube.
+     *
+     * @param serverThreadData the result of {@link #writeServerThreadData(Cube)}, it's not modified
+     */
+    static NBTTagCompound writeWithoutBlocks(final Cube cube, NBTTagCompound serverThreadData) {
         NBTTagCompound level = new NBTTagCompound();
+        for (String key : serverThreadData.getKeySet()) {
+            level.setTag(key, serverThreadData.getTag(key));
+        }
+        level.setByte("v", (byte) 1);
+        level.setInteger("x", cube.getX());
+        level.setInteger("y", cube.getY());
+        level.setInteger("z", cube.getZ());
+        level.setBoolean("populated", cube.isPopulated());
+        level.setBoolean("isSurfaceTracked", cube.isSurfaceTracked());
+        level.setBoolean("fullyPopulated", cube.isFullyPopulated());
+        level.setBoolean("initLightDone", cube.isInitialLightingDone());
+
+        NBTTagCompound lightingInfo = new NBTTagCompound();
+        byte edges = 0;
+        for (int i = 0; i < cube.edgeNeedSkyLightUpdate.length; i++) {
+            if (cube.edgeNeedSkyLightUpdate[i]) {
+                edges |= 1 << i;
+            }
+        }
+        lightingInfo.setIntArray("LastHeightMap", cube.getColumn().getHeightMap().clone());
+        lightingInfo.setByte("EdgeNeedSkyLightUpdate", edges);
+        level.setTag("LightingInfo", lightingInfo);
+
+        NBTTagCompound cubeNbt = new NBTTagCompound();
         cubeNbt.setTag("Level", level);
+        return cubeNbt;
+    }
+
+    static NBTTagCompound write(CubeSnapshot cube) {
+        NBTTagCompound cubeNbt = new NBTTagCompound();
+        //Added to preserve compatibility with vanilla NBT chunk format.
+        cubeNbt.setTag("Level", writeLevel(cube));
         cubeNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
         FMLCommonHandler.instance().getDataFixer().writeVersionData(cubeNbt);
+        return cubeNbt;
+    }
+
+    /**
+     * Creates the NBT of a cube that is in the {@link IColumn#getEmptyCubeIndex() empty cube index} of its column. It
+     * is the same as the NBT of a {@link CubeSnapshot#isEmptyAboveSurface() cube empty above surface}, except for the last
+     * height map, which only has to be below the cube.
+     */
+    static NBTTagCompound writeEmptyCube(int cubeX, int cubeY, int cubeZ) {
+        NBTTagCompound level = new NBTTagCompound();
+        level.setByte("v", (byte) 1);
+        level.setInteger("x", cubeX);
+        level.setInteger("y", cubeY);
+        level.setInteger("z", cubeZ);
+        level.setBoolean("populated", true);
+        level.setBoolean("isSurfaceTracked", true);
+        level.setBoolean("fullyPopulated", true);
+        level.setBoolean("initLightDone", true);
+
+        NBTTagCompound lightingInfo = new NBTTagCompound();
+        int[] lastHeightMap = new int[Cube.SIZE * Cube.SIZE];
+        Arrays.fill(lastHeightMap, Coords.cubeToMinBlock(cubeY) - 1);
+        lightingInfo.setIntArray("LastHeightMap", lastHeightMap);
+        lightingInfo.setByte("EdgeNeedSkyLightUpdate", (byte) 0);
+        level.setTag("LightingInfo", lightingInfo);
+
+        NBTTagCompound cubeNbt = new NBTTagCompound();
+        cubeNbt.setTag("Level", level);
+        return cubeNbt;
+    }
+
+    static NBTTagCompound writeLevel(CubeSnapshot cube) {
+        NBTTagCompound level = new NBTTagCompound();
+        // the snapshot may be written more than once, don't modify it
+        for (String key : cube.serverThreadData.getKeySet()) {
+            level.setTag(key, cube.serverThreadData.getTag(key));
+        }
         writeBaseCube(cube, level);
         writeBlocks(cube, level);
-        writeEntities(cube, level);
-        writeTileEntities(cube, level);
-        writeScheduledTicks(cube, level);
         writeLightingInfo(cube, level);
-        return cubeNbt;
+        return level;
     }
 
     private static void writeBaseColumn(IColumn column, NBTTagCompound nbt) {// coords
@@ -102,6 +202,7 @@ class IONbtWriter {
         // column properties
         nbt.setByte("v", (byte) 1);
         nbt.setLong("InhabitedTime", column.getInhabitedTime());
+        nbt.setIntArray("EmptyCubes", column.getEmptyCubeIndex().toArray());
     }
 
     private static void writeBiomes(IColumn column, NBTTagCompound nbt) {// biomes
@@ -112,25 +213,24 @@ class IONbtWriter {
         nbt.setByteArray("OpacityIndex", ((ServerHeightMap) IColumn.getOpacityIndex()).getData());
     }
 
-    private static void writeBaseCube(Cube cube, NBTTagCompound cubeNbt) {
+    private static void writeBaseCube(CubeSnapshot cube, NBTTagCompound cubeNbt) {
         cubeNbt.setByte("v", (byte) 1);
 
         // coords
-        cubeNbt.setInteger("x", cube.getX());
-        cubeNbt.setInteger("y", cube.getY());
-        cubeNbt.setInteger("z", cube.getZ());
+        cubeNbt.setInteger("x", cube.x);
+        cubeNbt.setInteger("y", cube.y);
+        cubeNbt.setInteger("z", cube.z);
 
         // save the worldgen stage and the target stage
-        cubeNbt.setBoolean("populated", cube.isPopulated());
-        cubeNbt.setBoolean("isSurfaceTracked", cube.isSurfaceTracked());
-        cubeNbt.setBoolean("fullyPopulated", cube.isFullyPopulated());
+        cubeNbt.setBoolean("populated", cube.populated);
+        cubeNbt.setBoolean("isSurfaceTracked", cube.surfaceTracked);
+        cubeNbt.setBoolean("fullyPopulated", cube.fullyPopulated);
 
-        cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone());
+        cubeNbt.setBoolean("initLightDone", cube.initLightDone);
     }
 
-    private static void writeBlocks(Cube cube, NBTTagCompound cubeNbt) {
-        ExtendedBlockStorage ebs = cube.getStorage();
-        if (ebs == null) {
+    private static void writeBlocks(CubeSnapshot cube, NBTTagCompound cubeNbt) {
+        if (cube.blocks == null) {
             return; // no data to save anyway
         }
         NBTTagList sectionList = new NBTTagList();
@@ -139,7 +239,7 @@ class IONbtWriter {
         cubeNbt.setTag("Sections", sectionList);
         byte[] abyte = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
         NibbleArray data = new NibbleArray();
-        NibbleArray add = ebs.getData().getDataForNBT(abyte, data);
+        NibbleArray add = cube.getDataForNBT(abyte, data);
 
         section.setByteArray("Blocks", abyte);
         section.setByteArray("Data", data.getData());
@@ -148,10 +248,10 @@ class IONbtWriter {
             section.setByteArray("Add", add.getData());
         }
 
-        section.setByteArray("BlockLight", ebs.getBlockLight().getData());
+        section.setByteArray("BlockLight", cube.blockLight);
 
-        if (cube.getCubicWorld().getProvider().hasSkyLight()) {
-            section.setByteArray("SkyLight", ebs.getSkyLight().getData());
+        if (cube.skyLight != null) {
+            section.setByteArray("SkyLight", cube.skyLight);
         }
     }
 
@@ -201,18 +301,12 @@ class IONbtWriter {
         }
     }
 
-    private static void writeLightingInfo(Cube cube, NBTTagCompound cubeNbt) {
+    private static void writeLightingInfo(CubeSnapshot cube, NBTTagCompound cubeNbt) {
         NBTTagCompound lightingInfo = new NBTTagCompound();
         cubeNbt.setTag("LightingInfo", lightingInfo);
 
-        int[] lastHeightmap = cube.getColumn().getHeightMap();
-        lightingInfo.setIntArray("LastHeightMap", lastHeightmap); //TODO: why are we storing the height map on a Cube???
-        byte edgeNeedSkyLightUpdate = 0;
-        for (int i = 0; i < cube.edgeNeedSkyLightUpdate.length; i++) {
-            if (cube.edgeNeedSkyLightUpdate[i])
-                edgeNeedSkyLightUpdate |= 1 << i;
-        }
-        lightingInfo.setByte("EdgeNeedSkyLightUpdate", edgeNeedSkyLightUpdate);
+        lightingInfo.setIntArray("LastHeightMap", cube.lastHeightMap); //TODO: why are we storing the height map on a Cube???
+        lightingInfo.setByte("EdgeNeedSkyLightUpdate", cube.edgeNeedSkyLightUpdate);
     }
 
     private static List<NextTickListEntry> getScheduledTicks(Cube cube) {
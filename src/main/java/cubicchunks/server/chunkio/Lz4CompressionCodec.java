@@ -0,0 +1,195 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Fast LZ77 compression using the LZ4 block format. Compresses much worse than deflate, but is several times faster
+ * both ways, which matters more when saving is CPU bound.
+ * <p>
+ * The entry is the header byte, the uncompressed size as big endian int and a single LZ4 block.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class Lz4CompressionCodec implements ICompressionCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    /**
+     * The last 5 bytes are always literals
+     */
+    private static final int LAST_LITERALS = 5;
+    /**
+     * The last match must start at least 12 bytes before the end
+     */
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    @Override public byte getHeader() {
+        return 3;
+    }
+
+    @Override public byte[] compress(byte[] data) {
+        int n = data.length;
+        byte[] out = new byte[5 + n + n / 255 + 16];
+        out[0] = getHeader();
+        CompressionCodecs.writeInt(out, 1, n);
+        int op = 5;
+        int anchor = 0;
+
+        if (n > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            int ipLimit = n - MF_LIMIT;
+            int matchLimit = n - LAST_LITERALS;
+            int ip = 0;
+            while (ip < ipLimit) {
+                int seq = readIntLE(data, ip);
+                int hash = (seq * -1640531535) >>> (32 - HASH_LOG);
+                int ref = table[hash];
+                table[hash] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readIntLE(data, ref) != seq) {
+                    ip++;
+                    continue;
+                }
+                // extend the match backwards into not yet written literals, and forwards as far as possible
+                while (ip > anchor && ref > 0 && data[ip - 1] == data[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int length = MIN_MATCH;
+                while (ip + length < matchLimit && data[ip + length] == data[ref + length]) {
+                    length++;
+                }
+                op = writeSequence(data, anchor, ip - anchor, out, op, ip - ref, length - MIN_MATCH);
+                ip += length;
+                anchor = ip;
+            }
+        }
+        int tokenPos = op++;
+        op = writeLiterals(data, anchor, n - anchor, out, op, tokenPos);
+        return Arrays.copyOf(out, op);
+    }
+
+    @Override public byte[] decompress(byte[] entry) throws IOException {
+        if (entry.length < 6) {
+            throw new IOException("LZ4 entry too short: " + entry.length);
+        }
+        int size = CompressionCodecs.readInt(entry, 1);
+        if (size < 0) {
+            throw new IOException("Invalid uncompressed size " + size);
+        }
+        byte[] out = new byte[size];
+        int ip = 5;
+        int op = 0;
+        try {
+            while (true) {
+                int token = entry[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = entry[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(entry, ip, out, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip >= entry.length) {
+                    break; // the last sequence has only literals
+                }
+
+                int offset = (entry[ip++] & 0xFF) | (entry[ip++] & 0xFF) << 8;
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = entry[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + matchLength > size) {
+                    throw new IOException("Corrupted LZ4 entry, invalid match at " + op);
+                }
+                // matches can overlap with the output, so copy byte by byte
+                for (int i = 0; i < matchLength; i++) {
+                    out[op++] = out[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted LZ4 entry", e);
+        }
+        if (op != size) {
+            throw new IOException("Expected " + size + " bytes but decompressed " + op);
+        }
+        return out;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, byte[] dst, int op, int offset, int matchLength) {
+        int tokenPos = op++;
+        op = writeLiterals(src, literalStart, literalLength, dst, op, tokenPos);
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (matchLength >= 15) {
+            dst[tokenPos] |= 15;
+            op = writeLength(matchLength - 15, dst, op);
+        } else {
+            dst[tokenPos] |= matchLength;
+        }
+        return op;
+    }
+
+    private static int writeLiterals(byte[] src, int start, int length, byte[] dst, int op, int tokenPos) {
+        if (length >= 15) {
+            dst[tokenPos] = (byte) (15 << 4);
+            op = writeLength(length - 15, dst, op);
+        } else {
+            dst[tokenPos] = (byte) (length << 4);
+        }
+        System.arraycopy(src, start, dst, op, length);
+        return op + length;
+    }
+
+    private static int writeLength(int length, byte[] dst, int op) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readIntLE(byte[] data, int i) {
+        return (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Reads entries of region files in one directory through read-only memory mappings. The most recently used mappings are
+ * kept, so loading many entries of the same region doesn't open the file or allocate a buffer for each one.
+ * <p>
+ * Region files consist of 512 byte sectors. The header at the start of the file has one int for each entry, storing the
+ * first sector of the entry in the upper 24 bits and the amount of sectors used in the lower 8 bits, 0 for entries that
+ * don't exist. Each entry starts with its size in bytes.
+ * <p>
+ * Regions are still written by RegionLib using normal file IO, the changes are visible through the mapping. When a region
+ * file grows, it's mapped again.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class MappedRegionCache {
+
+    private static final int SECTOR_SIZE = 512;
+    private static final int SIZE_BITS = 8;
+    private static final int SIZE_MASK = (1 << SIZE_BITS) - 1;
+
+    private final Path directory;
+    private final Map<String, MappedByteBuffer> mappings;
+
+    MappedRegionCache(Path directory, int maxMappings) {
+        this.directory = directory;
+        this.mappings = new LinkedHashMap<String, MappedByteBuffer>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, MappedByteBuffer> eldest) {
+                return size() > maxMappings;
+            }
+        };
+    }
+
+    /**
+     * Reads the entry without copying it.
+     *
+     * @return buffer containing only the entry data, or null if the entry can't be read from the mapping. In that case
+     * it should be read the normal way, which also handles entries that don't exist.
+     */
+    @Nullable ByteBuffer read(IKey<?> key) throws IOException {
+        String name = key.getRegionKey().getName();
+        ByteBuffer region = getMapping(name, 0);
+        if (region == null) {
+            return null;
+        }
+        int headerPos = key.getId() * Integer.BYTES;
+        if (headerPos + Integer.BYTES > region.capacity()) {
+            return null;
+        }
+        int location = region.getInt(headerPos);
+        if (location == 0) {
+            return null;
+        }
+        long start = (long) (location >>> SIZE_BITS) * SECTOR_SIZE;
+        long maxSize = (long) (location & SIZE_MASK) * SECTOR_SIZE;
+        if (start + maxSize > Integer.MAX_VALUE) {
+            return null;
+        }
+        if (start + maxSize > region.capacity()) {
+            // written after the file was mapped
+            region = getMapping(name, start + maxSize);
+            if (region == null) {
+                return null;
+            }
+        }
+        int size = region.getInt((int) start);
+        if (size <= 0 || size + Integer.BYTES > maxSize) {
+            return null;
+        }
+        ByteBuffer entry = region.duplicate();
+        entry.position((int) start + Integer.BYTES);
+        entry.limit((int) start + Integer.BYTES + size);
+        return entry.slice();
+    }
+
+    /**
+     * @return a mapping of the whole region file, that is at least {@code minSize} bytes long, or null if there is no
+     * such file
+     */
+    @Nullable private synchronized ByteBuffer getMapping(String name, long minSize) throws IOException {
+        MappedByteBuffer mapping = mappings.get(name);
+        if (mapping != null && mapping.capacity() >= minSize) {
+            return mapping;
+        }
+        Path file = directory.resolve(name);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            if (size < minSize) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        mappings.put(name, mapping);
+        return mapping;
+    }
+
+    /**
+     * Forgets all mappings. The memory is released when they are garbage collected.
+     */
+    synchronized void clear() {
+        mappings.clear();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.world.ICubicWorldServer;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cube IO that reads region files through memory mappings instead of reading each entry into a new buffer. Writing is
+ * the same as in {@link RegionCubeIO}.
+ * <p>
+ * Entries that can't be found in the mapped regions are read the normal way, so missing entries and anything unexpected
+ * in the region file are handled by RegionLib.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class MappedRegionCubeIO extends RegionCubeIO {
+
+    private static final int MAX_MAPPED_COLUMN_REGIONS = 16;
+    private static final int MAX_MAPPED_CUBE_REGIONS = 64;
+
+    private final MappedRegionCache columnRegions;
+    private final MappedRegionCache cubeRegions;
+
+    public MappedRegionCubeIO(ICubicWorldServer world) throws IOException {
+        super(world);
+        this.columnRegions = new MappedRegionCache(path.resolve("region2d"), MAX_MAPPED_COLUMN_REGIONS);
+        this.cubeRegions = new MappedRegionCache(path.resolve("region3d"), MAX_MAPPED_CUBE_REGIONS);
+    }
+
+    @Override protected Optional<ByteBuffer> readColumnEntry(EntryLocation2D pos) throws IOException {
+        ByteBuffer entry = columnRegions.read(pos);
+        return entry != null && isValidEntry(entry) ? Optional.of(entry) : super.readColumnEntry(pos);
+    }
+
+    @Override protected Optional<ByteBuffer> readCubeEntry(EntryLocation3D pos) throws IOException {
+        ByteBuffer entry = cubeRegions.read(pos);
+        return entry != null && isValidEntry(entry) ? Optional.of(entry) : super.readCubeEntry(pos);
+    }
+
+    private static boolean isValidEntry(ByteBuffer entry) {
+        return CubeBinaryCodec.isBinary(entry) || CompressionCodecs.forHeader(entry.get(entry.position())) != null;
+    }
+
+    @Override public void flush() throws IOException {
+        super.flush();
+        columnRegions.clear();
+        cubeRegions.clear();
+    }
+}
@@ -25,6 +25,7 @@ package cubicchunks.server.chunkio;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.api.region.key.RegionKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
@@ -34,21 +35,29 @@ import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.WorldProvider;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraft.world.storage.ThreadedFileIOBase;
-import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.apache.logging.log4j.Logger;
 
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -58,11 +67,35 @@ public class RegionCubeIO implements ICubeIO {
     private static final long kB = 1024;
     private static final long MB = kB * 1024;
     private static final Logger LOGGER = CubicChunks.LOGGER;
+    // approximate memory used by a column waiting to be saved, mostly biomes and the opacity index
+    private static final long COLUMN_SIZE_ESTIMATE = 8 * kB;
+    // how long a single writeNextIO call can keep writing when the save queue is full
+    private static final long MAX_PRIORITY_WRITE_NANOS = 50 * 1000_000L;
+    // prefetched cubes that aren't loaded within this time are dropped
+    private static final long PREFETCH_EXPIRE_NANOS = 10 * 1000_000_000L;
+    private static final int MAX_PREFETCHED_CUBES = 1024;
+    // entries that fail to be written this many times are dropped from the save queue
+    private static final int MAX_WRITE_ATTEMPTS = 3;
 
     @Nonnull private ICubicWorldServer world;
+    @Nonnull protected final Path path;
     @Nonnull private SaveCubeColumns save;
     @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
     @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
+    @Nonnull private final AtomicLong queuedBytes = new AtomicLong();
+    @Nonnull private final ConcurrentMap<CubePos, PrefetchedCube> prefetchedCubes = new ConcurrentHashMap<>();
+    @Nonnull private final ColdCubeCache coldCache = new ColdCubeCache();
+    private volatile boolean wasSaveQueueFull = false;
+    @Nonnull private final SaveJournal journal;
+    // queued entries read from the journal that haven't been written to the region files yet
+    @Nonnull private final AtomicInteger journaledEntries = new AtomicInteger();
+    // true while the journal exists, nothing else can be written to the region files until it's deleted
+    private volatile boolean journalActive = false;
+    // set when the save queue was written to the journal on shutdown. The journal now has everything that wasn't saved,
+    // and this instance may still be in the IO thread queue, so nothing can be written or deleted anymore
+    private volatile boolean journalWrittenAtShutdown = false;
+    // held while writing to the region files, so that they aren't closed in the middle of a batch
+    @Nonnull private final Object writeLock = new Object();
     
     public RegionCubeIO(ICubicWorldServer world) throws IOException {
         this.world = world;
@@ -72,22 +105,66 @@ public class RegionCubeIO implements ICubeIO {
         if (prov.getSaveFolder() != null) {
             path = path.resolve(prov.getSaveFolder());
         }
+        this.path = path;
         this.save = SaveCubeColumns.create(path);
 
         // init chunk save queue
         this.columnsToSave = new ConcurrentHashMap<>();
         this.cubesToSave = new ConcurrentHashMap<>();
+
+        this.journal = new SaveJournal(path);
+        if (this.journal.exists()) {
+            recoverJournal();
+        }
     }
 
-    @Override public void flush() throws IOException {
-        if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
-            LOGGER.error("Attempt to flush() CubeIO when there are remaining cubes to save! Saving remaining cubes to avoid corruption");
-            while (this.writeNextIO()) {
-                ;
+    private void recoverJournal() throws IOException {
+        journal.read(new SaveJournal.RecordConsumer() {
+            @Override public void column(ChunkPos pos, byte[] data) {
+                enqueue(columnsToSave, pos, new SaveEntry<>(new EntryLocation2D(pos.x, pos.z), data, false));
+            }
+
+            @Override public void cube(CubePos pos, byte[] data) {
+                // it's not known which cubes were removed from the empty cube index, so all of them wait for their column
+                enqueue(cubesToSave, pos, new SaveEntry<>(new EntryLocation3D(pos.getX(), pos.getY(), pos.getZ()), data, true));
             }
+        });
+        int count = columnsToSave.size() + cubesToSave.size();
+        if (count == 0) {
+            journal.delete();
+            return;
         }
+        LOGGER.info("Recovered {} columns and {} cubes from the save journal, writing them to region files",
+                columnsToSave.size(), cubesToSave.size());
+        journaledEntries.set(count);
+        journalActive = true;
+        queueIO();
+    }
+
+    /**
+     * Signals the IO thread to call {@link #writeNextIO()}.
+     */
+    protected void queueIO() {
+        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+    }
 
-        this.save.close();
+    @Override public void flush() throws IOException {
+        synchronized (writeLock) {
+            if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
+                // the journal can only be used when nothing will be saved anymore, otherwise newer data written to the region
+                // files could be overwritten by the journal after a crash
+                if (!CubicChunks.Config.BoolOptions.USE_SAVE_JOURNAL.getValue()
+                        || world.getMinecraftServer() == null || world.getMinecraftServer().isServerRunning() || !writeJournal()) {
+                    LOGGER.info("Saving {} remaining columns and {} cubes", columnsToSave.size(), cubesToSave.size());
+                    while (this.writeNextIO()) {
+                        ;
+                    }
+                }
+            }
+
+            this.save.close();
+            this.coldCache.clear();
+        }
         //if (!this.save.isClosed()) {
         //	this.db.close();
         //} else {
@@ -95,18 +172,58 @@ public class RegionCubeIO implements ICubeIO {
         //}
     }
 
+    /**
+     * Writes everything in the save queue to the journal, and removes it from the queue.
+     *
+     * @return false if writing the journal failed and the queue has to be written to the region files instead
+     */
+    private boolean writeJournal() {
+        long start = System.nanoTime();
+        int columns = columnsToSave.size();
+        int cubes = cubesToSave.size();
+        try (SaveJournal.Writer writer = journal.create()) {
+            for (Map.Entry<ChunkPos, SaveEntry<EntryLocation2D>> entry : columnsToSave.entrySet()) {
+                writer.writeColumn(entry.getKey(), entry.getValue().getBytes());
+            }
+            for (Map.Entry<CubePos, SaveEntry<EntryLocation3D>> entry : cubesToSave.entrySet()) {
+                writer.writeCube(entry.getKey(), entry.getValue().getBytes());
+            }
+            writer.commit();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Unable to write the save journal", e);
+            return false;
+        }
+        columnsToSave.clear();
+        cubesToSave.clear();
+        queuedBytes.set(0);
+        journaledEntries.set(0);
+        journalActive = true;
+        journalWrittenAtShutdown = true;
+        LOGGER.info("Wrote {} columns and {} cubes to the save journal in {} ms", columns, cubes, (System.nanoTime() - start) / 1000_000);
+        return true;
+    }
+
     @Override @Nullable public IColumn loadColumn(int chunkX, int chunkZ) throws IOException {
         NBTTagCompound nbt;
         SaveEntry<EntryLocation2D> saveEntry;
-        if ((saveEntry = columnsToSave.get(new ChunkPos(chunkX, chunkZ))) != null) {
-            nbt = saveEntry.nbt;
+        ColdCubeCache.Entry cold = isColdCacheEnabled() ? coldCache.takeColumn(new ChunkPos(chunkX, chunkZ)) : null;
+        if (cold != null) {
+            nbt = cold.nbt;
+        } else if ((saveEntry = columnsToSave.get(new ChunkPos(chunkX, chunkZ))) != null && saveEntry.data == null) {
+            nbt = saveEntry.getNbt();
         } else {
-            // IOException makes using Optional impossible :(
-            Optional<ByteBuffer> buf = this.save.load(new EntryLocation2D(chunkX, chunkZ));
-            if (!buf.isPresent()) {
-                return null;
+            byte[] data;
+            if (saveEntry != null) {
+                data = CompressionCodecs.decompress(saveEntry.data);
+            } else {
+                // IOException makes using Optional impossible :(
+                Optional<ByteBuffer> buf = readColumnEntry(new EntryLocation2D(chunkX, chunkZ));
+                if (!buf.isPresent()) {
+                    return null;
+                }
+                data = CompressionCodecs.decompress(buf.get());
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            nbt = CubeDataFixer.process(readNbt(data));
         }
         return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
     }
@@ -114,26 +231,113 @@ public class RegionCubeIO implements ICubeIO {
     @Override @Nullable public ICubeIO.PartialCubeData loadCubeAsyncPart(IColumn column, int cubeY) throws IOException {
 
         NBTTagCompound nbt;
+        ExtendedBlockStorage storage = null;
         SaveEntry<EntryLocation3D> saveEntry;
-        if ((saveEntry = this.cubesToSave.get(new CubePos(column.getX(), cubeY, column.getZ()))) != null) {
-            nbt = saveEntry.nbt;
+        CubePos pos = new CubePos(column.getX(), cubeY, column.getZ());
+        ColdCubeCache.Entry cold = isColdCacheEnabled() ? coldCache.takeCube(pos) : null;
+        if (cold != null) {
+            // already up to date, and the block storage of the unloaded cube can be used as is
+            nbt = cold.nbt;
+            storage = cold.storage;
+        } else if ((saveEntry = this.cubesToSave.get(pos)) != null && saveEntry.data == null) {
+            nbt = saveEntry.getNbt();
+        } else if (saveEntry == null && column.getEmptyCubeIndex().contains(cubeY)) {
+            nbt = IONbtWriter.writeEmptyCube(column.getX(), cubeY, column.getZ());
         } else {
+            byte[] data;
+            if (saveEntry != null) {
+                // recovered from the save journal
+                data = unwrapCubeEntry(ByteBuffer.wrap(saveEntry.data));
+            } else {
+                PrefetchedCube prefetched = this.prefetchedCubes.remove(pos);
+                data = prefetched != null && !prefetched.isExpired(System.nanoTime())
+                        ? prefetched.data
+                        : readCubeData(new EntryLocation3D(column.getX(), cubeY, column.getZ()));
+            }
             // does the database have the cube?
-            Optional<ByteBuffer> buf = this.save.load(new EntryLocation3D(column.getX(), cubeY, column.getZ()));
-            if (!buf.isPresent()) {
+            if (data == null) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            if (CubeBinaryCodec.isBinary(data)) {
+                CubeBinaryCodec.DecodedCube decoded = CubeBinaryCodec.decode(data, world.getProvider().hasSkyLight());
+                nbt = decoded.nbt;
+                storage = decoded.storage;
+            } else {
+                nbt = readNbt(data);
+            }
+            nbt = CubeDataFixer.process(nbt);
         }
 
         // restore the cube - async part
-        Cube cube = IONbtReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), nbt);
+        Cube cube = IONbtReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), nbt, storage);
         if (cube == null) {
             return null;
         }
         return new ICubeIO.PartialCubeData(cube, nbt);
     }
 
+    /**
+     * Reads and decompresses a cube entry.
+     *
+     * @return the uncompressed cube data, in NBT or binary format, or null if the cube doesn't exist
+     */
+    @Nullable private byte[] readCubeData(EntryLocation3D pos) throws IOException {
+        Optional<ByteBuffer> buf = readCubeEntry(pos);
+        if (!buf.isPresent()) {
+            return null;
+        }
+        return unwrapCubeEntry(buf.get());
+    }
+
+    private static byte[] unwrapCubeEntry(ByteBuffer entry) throws IOException {
+        // binary entries are not wrapped in a compression codec
+        return CubeBinaryCodec.isBinary(entry) ? CompressionCodecs.toArray(entry) : CompressionCodecs.decompress(entry);
+    }
+
+    @Override public void prefetchCubes(IColumn column, int minCubeY, int maxCubeY) {
+        int cubeX = column.getX();
+        int cubeZ = column.getZ();
+        long now = System.nanoTime();
+        prefetchedCubes.values().removeIf(cube -> cube.isExpired(now));
+        if (prefetchedCubes.size() + maxCubeY - minCubeY + 1 > MAX_PREFETCHED_CUBES) {
+            return;
+        }
+        // The column isn't loaded yet, so none of its cubes can be loaded and modified while they are prefetched.
+        // Cubes waiting to be saved are newer than the ones on disk, loading them won't use the prefetched data anyway
+        // Going up the column reads the regions one after another, and each region in order of entry position
+        for (int cubeY = minCubeY; cubeY <= maxCubeY; cubeY++) {
+            CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+            if (cubesToSave.containsKey(pos) || prefetchedCubes.containsKey(pos) || column.getEmptyCubeIndex().contains(cubeY)
+                    || coldCache.containsCube(pos)) {
+                continue;
+            }
+            try {
+                prefetchedCubes.put(pos, new PrefetchedCube(readCubeData(new EntryLocation3D(cubeX, cubeY, cubeZ)), System.nanoTime()));
+            } catch (IOException e) {
+                // it will be read again, and the error reported, when the cube is loaded
+                LOGGER.debug("Unable to prefetch cube {}", pos, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the raw, still compressed column entry from disk.
+     */
+    protected Optional<ByteBuffer> readColumnEntry(EntryLocation2D pos) throws IOException {
+        return this.save.load(pos);
+    }
+
+    /**
+     * Reads the raw, still compressed cube entry from disk.
+     */
+    protected Optional<ByteBuffer> readCubeEntry(EntryLocation3D pos) throws IOException {
+        return this.save.load(pos);
+    }
+
+    static NBTTagCompound readNbt(byte[] data) throws IOException {
+        return CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
     @Override public void loadCubeSyncPart(ICubeIO.PartialCubeData info) {
         IONbtReader.readCubeSyncPart(info.cube, world, info.nbt);
     }
@@ -143,109 +347,358 @@ public class RegionCubeIO implements ICubeIO {
         // make it as fast as possible by offloading processing to the IO thread
         // except we have to write the NBT in this thread to avoid problems
         // with concurrent access to world data structures
+        saveColumn(column, IONbtWriter.write(column));
+    }
 
+    private void saveColumn(IColumn column, NBTTagCompound nbt) {
         // add the column to the save queue
-        this.columnsToSave
-                .put(column.getPos(), new SaveEntry<>(new EntryLocation2D(column.getX(), column.getZ()), IONbtWriter.write(column)));
+        enqueue(this.columnsToSave, column.getPos(), new SaveEntry<>(new EntryLocation2D(column.getX(), column.getZ()), nbt));
         column.markSaved();
 
         // signal the IO thread to process the save queue
-        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+        queueIO();
+    }
+
+    @Override public void unloadColumn(IColumn column) {
+        boolean needsSaving = column.needsSaving(true);
+        if (!isColdCacheEnabled()) {
+            if (needsSaving) {
+                saveColumn(column);
+            }
+            return;
+        }
+        // like vanilla, this fires the save event even if the column didn't change
+        NBTTagCompound nbt = IONbtWriter.write(column);
+        if (needsSaving) {
+            saveColumn(column, nbt);
+        }
+        coldCache.putColumn(column.getPos(), nbt, getColdCacheMaxBytes());
+    }
+
+    @Override public void unloadCube(Cube cube) {
+        if (!isColdCacheEnabled()) {
+            if (cube.needsSaving()) {
+                saveCube(cube);
+            }
+            return;
+        }
+        // the snapshot already has the entities, no need to write them twice
+        NBTTagCompound serverThreadData = cube.needsSaving()
+                ? queueCube(cube).serverThreadData
+                : IONbtWriter.writeServerThreadData(cube);
+        coldCache.putCube(cube.getCoords(), IONbtWriter.writeWithoutBlocks(cube, serverThreadData), cube.getStorage(),
+                getColdCacheMaxBytes());
+    }
+
+    @Override public ColdCubeCache getColdCache() {
+        return coldCache;
+    }
+
+    private boolean isColdCacheEnabled() {
+        return CubicChunks.Config.IntOptions.UNLOADED_CUBE_CACHE_SIZE.getValue() > 0;
+    }
+
+    private long getColdCacheMaxBytes() {
+        return CubicChunks.Config.IntOptions.UNLOADED_CUBE_CACHE_SIZE.getValue() * MB;
     }
 
     @Override public void saveCube(Cube cube) {
-        // NOTE: this function blocks the world thread, so make it fast
+        queueCube(cube);
+    }
 
-        this.cubesToSave.put(cube.getCoords(), new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), IONbtWriter.write(cube)));
+    /**
+     * Adds the cube to the save queue.
+     *
+     * @return the snapshot of the cube
+     */
+    private CubeSnapshot queueCube(Cube cube) {
+        // NOTE: this function blocks the world thread, so make it fast
+        // only copy the data here, the NBT is built by the IO thread
+
+        // a cube can be prefetched again only after its column is unloaded, but make sure old data is never used
+        this.prefetchedCubes.remove(cube.getCoords());
+        CubeSnapshot snapshot = IONbtWriter.snapshot(cube);
+
+        IColumn column = cube.getColumn();
+        // a cube that was still waiting for its column keeps waiting, even if it's saved again
+        SaveEntry<EntryLocation3D> queued = this.cubesToSave.get(cube.getCoords());
+        boolean columnFirst = queued != null && queued.columnFirst;
+        if (snapshot.isEmptyAboveSurface()) {
+            if (!column.getEmptyCubeIndex().add(cube.getY())) {
+                // already saved as empty, there is nothing new to write
+                cube.markSaved();
+                return snapshot;
+            }
+            // Write the cube anyway, in case the column isn't saved. Once the index is saved with the column,
+            // the cube won't be written or read again until it's no longer empty
+            column.setModified(true);
+        } else if (column.getEmptyCubeIndex().remove(cube.getY())) {
+            // the column is written before the cube, otherwise the cube would be loaded as empty after a crash.
+            // writeNextBatch doesn't write the cube while the column is in the save queue
+            saveColumn(column);
+            columnFirst = true;
+        }
+        enqueue(this.cubesToSave, cube.getCoords(),
+                new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), snapshot, columnFirst));
         cube.markSaved();
 
         // signal the IO thread to process the save queue
-        ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+        queueIO();
+        return snapshot;
+    }
+
+    private <K, T extends IKey<T>> void enqueue(ConcurrentMap<K, SaveEntry<T>> queue, K key, SaveEntry<T> entry) {
+        SaveEntry<T> old = queue.put(key, entry);
+        // the replaced entry won't be removed by the IO thread, so it has to be subtracted here
+        queuedBytes.addAndGet(entry.size - (old == null ? 0 : old.size));
+        if (old != null && old.data != null) {
+            journaledEntries.decrementAndGet();
+        }
+    }
+
+    @Override public boolean cubeExists(int cubeX, int cubeY, int cubeZ) throws IOException {
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+        if (cubesToSave.containsKey(pos) || coldCache.containsCube(pos)) {
+            return true;
+        }
+        PrefetchedCube prefetched = prefetchedCubes.get(pos);
+        if (prefetched != null && !prefetched.isExpired(System.nanoTime())) {
+            return prefetched.data != null;
+        }
+        return readCubeEntry(new EntryLocation3D(cubeX, cubeY, cubeZ)).isPresent();
+    }
+
+    @Override public boolean isSaveQueueFull() {
+        boolean full = queuedBytes.get() >= CubicChunks.Config.IntOptions.SAVE_QUEUE_MEMORY_LIMIT.getValue() * MB;
+        if (full != wasSaveQueueFull) {
+            wasSaveQueueFull = full;
+            if (full) {
+                LOGGER.info("Save queue is full ({} MB in {} cubes and {} columns), delaying cube unloading",
+                        queuedBytes.get() / MB, cubesToSave.size(), columnsToSave.size());
+            } else {
+                LOGGER.info("Save queue is no longer full, resuming cube unloading");
+            }
+        }
+        return full;
     }
 
     @Override
     public boolean writeNextIO() {
-        try {
-            // NOTE: return true to redo this call (used for batching)
+        // NOTE: return true to redo this call (used for batching)
+        // ThreadedFileIOBase waits a bit between calls, so when the queue is full keep writing in this call
+        // to save it as fast as possible
+        long start = System.nanoTime();
+        boolean hasMore;
+        do {
+            hasMore = writeNextBatch();
+        } while (hasMore && isSaveQueueFull() && System.nanoTime() - start < MAX_PRIORITY_WRITE_NANOS);
+        return hasMore;
+    }
+
+    private boolean writeNextBatch() {
+        synchronized (writeLock) {
+            return writeNextBatchLocked();
+        }
+    }
 
+    private boolean writeNextBatchLocked() {
+        if (journalWrittenAtShutdown) {
+            // the region files are closed, and the journal must stay until the world is loaded again
+            return false;
+        }
+        try {
+            if (journalActive && journaledEntries.get() == 0) {
+                // everything from the journal is in the region files now
+                journal.delete();
+                journalActive = false;
+                LOGGER.info("Finished writing cubes recovered from the save journal");
+            }
             final int ColumnsBatchSize = 25;
             final int CubesBatchSize = 250;
 
-            int numColumnsSaved = 0;
-            int numColumnsRemaining;
-            int numColumnBytesSaved = 0;
-            int numCubesSaved = 0;
-            int numCubesRemaining;
-            int numCubeBytesSaved = 0;
-            long start = System.currentTimeMillis();
+            long start = System.nanoTime();
 
             // save a batch of columns
-            Iterator<SaveEntry<EntryLocation2D>> colIt = columnsToSave.values().iterator();
-            for (SaveEntry<EntryLocation2D> entry; colIt.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-                entry = colIt.next();
-                try {
-                    // save the column
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    this.save.save2d(entry.pos, ByteBuffer.wrap(data));
-                    //column can be removed from toSave queue only after writing to disk
-                    //to avoid race conditions
-                    colIt.remove();
-                    numColumnBytesSaved += data.length;
-                } catch (Throwable t) {
-                    LOGGER.error(String.format("Unable to write column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ()), t);
-                }
-            }
+            BatchStats columns = writeBatch(columnsToSave, ColumnsBatchSize, "column", (pos, entry) -> false,
+                    (pos, data) -> this.save.save2d(pos, data));
+            // save a batch of cubes, except the ones that have to wait for their column
+            BatchStats cubes = writeBatch(cubesToSave, CubesBatchSize, "cube",
+                    (pos, entry) -> entry.columnFirst && isColumnWritePending(new ChunkPos(pos.getX(), pos.getZ())),
+                    (pos, data) -> this.save.save3d(pos, data));
+
+            int numColumnsRemaining = this.columnsToSave.size();
+            int numCubesRemaining = this.cubesToSave.size();
+
+            long diffNanos = System.nanoTime() - start;
+            long bytesPerSecond = diffNanos == 0 ? 0 : (columns.bytes + cubes.bytes) * 1000_000_000L / diffNanos;
+            LOGGER.debug("Wrote {} columns ({} remaining) ({}k, {} region switches) and {} cubes ({} remaining) ({}k, {} region switches) "
+                            + "in {} ms ({}k/s), {}k queued",
+                    columns.entries, numColumnsRemaining, columns.bytes / 1024, columns.regionSwitches,
+                    cubes.entries, numCubesRemaining, cubes.bytes / 1024, cubes.regionSwitches,
+                    diffNanos / 1000_000, bytesPerSecond / 1024, queuedBytes.get() / 1024
+            );
 
-            boolean hasMoreColumns = colIt.hasNext();
+            return numColumnsRemaining != 0 || numCubesRemaining != 0;
+        } catch (Throwable t) {
+            LOGGER.error("Exception occurred when saving cubes", t);
+            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+        }
+    }
 
-            Iterator<SaveEntry<EntryLocation3D>> cubeIt = cubesToSave.values().iterator();
-            // save a batch of cubes
+    private boolean isColumnWritePending(ChunkPos pos) {
+        SaveEntry<EntryLocation2D> column = columnsToSave.get(pos);
+        // columns that wait for the journal to be written can't be waited for, the journal has the column
+        // that was saved together with the cube
+        return column != null && !(journalActive && column.data == null);
+    }
 
-            for (SaveEntry<EntryLocation3D> entry; cubeIt.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-                entry = cubeIt.next();
-                try {
-                    // save the cube
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    try {
-                        this.save.save3d(entry.pos, ByteBuffer.wrap(data));
-                    } finally {
-                        //cube can be removed from toSave queue only after writing to disk
-                        //to avoid race conditions
-                        cubeIt.remove();
-                    }
+    /**
+     * Writes up to {@code batchSize} entries from the queue. The entries are grouped by region, so that each region is
+     * written to only once per batch, and written in entry order (the index of the entry in the region header). Entries
+     * that were never moved are laid out in that order, entries that were rewritten and moved can be anywhere in the file.
+     * Entries for which {@code mustWait} returns true are left in the queue.
+     */
+    private <K, T extends IKey<T>> BatchStats writeBatch(ConcurrentMap<K, SaveEntry<T>> queue, int batchSize, String name,
+            BiPredicate<K, SaveEntry<T>> mustWait, EntryWriter<T> writer) {
+        Map<RegionKey, List<Map.Entry<K, SaveEntry<T>>>> byRegion = new HashMap<>();
+        int count = 0;
+        Iterator<Map.Entry<K, SaveEntry<T>>> it = queue.entrySet().iterator();
+        while (it.hasNext() && count < batchSize) {
+            Map.Entry<K, SaveEntry<T>> entry = it.next();
+            if (journalActive && entry.getValue().data == null) {
+                // the journal has to be written first, see SaveJournal
+                continue;
+            }
+            if (mustWait.test(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+            byRegion.computeIfAbsent(entry.getValue().pos.getRegionKey(), r -> new ArrayList<>()).add(entry);
+            count++;
+        }
 
-                    numCubeBytesSaved += data.length;
+        BatchStats stats = new BatchStats();
+        for (List<Map.Entry<K, SaveEntry<T>>> region : byRegion.values()) {
+            // the sector offsets are only known to RegionLib, the entry index is the closest approximation available here
+            region.sort(Comparator.comparingInt(e -> e.getValue().pos.getId()));
+            for (Map.Entry<K, SaveEntry<T>> entry : region) {
+                SaveEntry<T> saveEntry = entry.getValue();
+                boolean done = false;
+                try {
+                    byte[] data = saveEntry.getBytes();
+                    writer.write(saveEntry.pos, ByteBuffer.wrap(data));
+                    stats.bytes += data.length;
+                    done = true;
                 } catch (Throwable t) {
-                    LOGGER.error(
-                            String.format("Unable to write cube %d, %d, %d", entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), t);
+                    // keep it in the queue for a few more attempts, cubes may be waiting for this column to be written.
+                    // If it's dropped, those cubes are written anyway and may be loaded as empty after a crash
+                    // until the column is saved again
+                    done = ++saveEntry.failedWrites >= MAX_WRITE_ATTEMPTS;
+                    LOGGER.error(String.format(done ? "Unable to write %s %s, giving up" : "Unable to write %s %s, will try again",
+                            name, entry.getKey()), t);
+                } finally {
+                    // the entry can be removed from the queue only after writing to disk to avoid race conditions.
+                    // If it has been replaced in the meantime, the new version still needs to be written
+                    if (done && queue.remove(entry.getKey(), saveEntry)) {
+                        queuedBytes.addAndGet(-saveEntry.size);
+                        if (saveEntry.data != null) {
+                            journaledEntries.decrementAndGet();
+                        }
+                    }
                 }
+                stats.entries++;
             }
-            boolean hasMoreCubes = cubeIt.hasNext();
+        }
+        stats.regionSwitches = Math.max(0, byRegion.size() - 1);
+        return stats;
+    }
 
-            numColumnsRemaining = this.columnsToSave.size();
-            numCubesRemaining = this.cubesToSave.size();
+    @FunctionalInterface
+    private interface EntryWriter<T> {
 
-            long diff = System.currentTimeMillis() - start;
-            LOGGER.debug("Wrote {} columns ({} remaining) ({}k) and {} cubes ({} remaining) ({}k) in {} ms",
-                    numColumnsSaved, numColumnsRemaining, numColumnBytesSaved / 1024,
-                    numCubesSaved, numCubesRemaining, numCubeBytesSaved / 1024, diff
-            );
+        void write(T pos, ByteBuffer data) throws IOException;
+    }
 
-            return hasMoreColumns || hasMoreCubes;
-        } catch (Throwable t) {
-            LOGGER.error("Exception occurred when saving cubes", t);
-            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+    private static class PrefetchedCube {
+
+        // null if the cube doesn't exist
+        @Nullable final byte[] data;
+        final long time;
+
+        PrefetchedCube(@Nullable byte[] data, long time) {
+            this.data = data;
+            this.time = time;
+        }
+
+        boolean isExpired(long now) {
+            return now - time > PREFETCH_EXPIRE_NANOS;
         }
     }
 
-    private static class SaveEntry<T extends IKey<?>> {
+    private static class BatchStats {
+
+        int entries;
+        long bytes;
+        int regionSwitches;
+    }
+
+    private static class SaveEntry<T extends IKey<T>> {
 
         private final T pos;
-        private final NBTTagCompound nbt;
+        @Nullable private final NBTTagCompound nbt;
+        @Nullable private final CubeSnapshot snapshot;
+        // the already encoded entry, only for entries recovered from the save journal
+        @Nullable private final byte[] data;
+        // estimated memory used by this entry, in bytes
+        private final long size;
+        // for cubes, true if the cube can't be written while its column is in the save queue
+        private final boolean columnFirst;
+        // only accessed by the thread holding writeLock
+        private int failedWrites;
 
         SaveEntry(T pos, NBTTagCompound nbt) {
             this.pos = pos;
             this.nbt = nbt;
+            this.snapshot = null;
+            this.data = null;
+            this.size = COLUMN_SIZE_ESTIMATE;
+            this.columnFirst = false;
+        }
+
+        SaveEntry(T pos, CubeSnapshot snapshot, boolean columnFirst) {
+            this.pos = pos;
+            this.nbt = null;
+            this.snapshot = snapshot;
+            this.data = null;
+            this.size = snapshot.estimateSize();
+            this.columnFirst = columnFirst;
+        }
+
+        SaveEntry(T pos, byte[] data, boolean columnFirst) {
+            this.pos = pos;
+            this.nbt = null;
+            this.snapshot = null;
+            this.data = data;
+            this.size = 64 + data.length;
+            this.columnFirst = columnFirst;
+        }
+
+        NBTTagCompound getNbt() {
+            if (snapshot != null) {
+                return snapshot.getNbt();
+            }
+            assert nbt != null;
+            return nbt;
+        }
+
+        byte[] getBytes() throws IOException {
+            if (data != null) {
+                return data;
+            }
+            if (snapshot != null && CubicChunks.Config.BoolOptions.USE_BINARY_CUBE_FORMAT.getValue()) {
+                // sections are compressed on their own, the entry isn't wrapped in a codec
+                return CubeBinaryCodec.encodeSectioned(snapshot, CompressionCodecs.fromConfig());
+            }
+            return IONbtWriter.writeNbtBytes(getNbt());
         }
     }
 
@@ -0,0 +1,220 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Append-only file with column and cube entries that are newer than the ones in the region files.
+ * <p>
+ * When the world is closed, everything left in the save queue is appended here instead of being written to the region
+ * files, which only needs one sequential write and fsync. The next time the world is opened the entries are put back
+ * into the save queue and written to the region files in the background. The journal is deleted once all of them have
+ * been written. Until then, nothing else is written to the region files, otherwise replaying the journal again after a
+ * crash could overwrite newer data.
+ * <p>
+ * Each record is the entry type, its position, the length of the data, the data exactly as it would be stored in the
+ * region file and a CRC32 of all of it. A journal cut off by a crash, or damaged, is read up to the last intact
+ * record.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class SaveJournal {
+
+    static final String FILE_NAME = "cubicchunks_save_journal.dat";
+    private static final int MAGIC = 0x43434A31; // "CCJ1"
+    private static final byte TYPE_COLUMN = 2;
+    private static final byte TYPE_CUBE = 3;
+
+    private final Path file;
+    private final Path tmpFile;
+
+    SaveJournal(Path directory) {
+        this.file = directory.resolve(FILE_NAME);
+        this.tmpFile = directory.resolve(FILE_NAME + ".tmp");
+    }
+
+    boolean exists() {
+        return Files.exists(file);
+    }
+
+    /**
+     * Reads all complete records of the journal.
+     *
+     * @return the number of records read
+     */
+    int read(RecordConsumer consumer) throws IOException {
+        int count = 0;
+        long fileSize = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a save journal: " + file);
+            }
+            while (true) {
+                CRC32 crc = new CRC32();
+                byte type;
+                int x, y = 0, z, length;
+                byte[] data;
+                try {
+                    type = in.readByte();
+                    x = in.readInt();
+                    if (type == TYPE_CUBE) {
+                        y = in.readInt();
+                    }
+                    z = in.readInt();
+                    length = in.readInt();
+                    if (length < 0 || length > fileSize || (type != TYPE_COLUMN && type != TYPE_CUBE)) {
+                        throw new IOException("Corrupted save journal record at entry " + count);
+                    }
+                    data = new byte[length];
+                    in.readFully(data);
+                    updateCrc(crc, type, x, y, z, data);
+                    if ((int) crc.getValue() != in.readInt()) {
+                        throw new IOException("Save journal checksum mismatch at entry " + count);
+                    }
+                } catch (EOFException e) {
+                    // the end of the file, or the last record was only partially written
+                    break;
+                } catch (IOException e) {
+                    CubicChunks.LOGGER.warn("Ignoring the rest of the save journal {}: {}", file, e.getMessage());
+                    break;
+                }
+                if (type == TYPE_COLUMN) {
+                    consumer.column(new ChunkPos(x, z), data);
+                } else {
+                    consumer.cube(new CubePos(x, y, z), data);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts writing a new journal. It replaces the existing journal, if any, only after {@link Writer#commit()}.
+     */
+    Writer create() throws IOException {
+        return new Writer(FileChannel.open(tmpFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static void updateCrc(CRC32 crc, byte type, int x, int y, int z, byte[] data) {
+        crc.update(type);
+        updateCrc(crc, x);
+        updateCrc(crc, y);
+        updateCrc(crc, z);
+        crc.update(data);
+    }
+
+    private static void updateCrc(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    interface RecordConsumer {
+
+        void column(ChunkPos pos, byte[] data) throws IOException;
+
+        void cube(CubePos pos, byte[] data) throws IOException;
+    }
+
+    class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private boolean committed;
+
+        private Writer(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            this.out.writeInt(MAGIC);
+        }
+
+        void writeColumn(ChunkPos pos, byte[] data) throws IOException {
+            write(TYPE_COLUMN, pos.x, 0, pos.z, data);
+        }
+
+        void writeCube(CubePos pos, byte[] data) throws IOException {
+            write(TYPE_CUBE, pos.getX(), pos.getY(), pos.getZ(), data);
+        }
+
+        private void write(byte type, int x, int y, int z, byte[] data) throws IOException {
+            out.writeByte(type);
+            out.writeInt(x);
+            if (type == TYPE_CUBE) {
+                out.writeInt(y);
+            }
+            out.writeInt(z);
+            out.writeInt(data.length);
+            out.write(data);
+            CRC32 crc = new CRC32();
+            updateCrc(crc, type, x, y, z, data);
+            out.writeInt((int) crc.getValue());
+        }
+
+        /**
+         * Makes sure the journal is on disk and replaces the previous one with it.
+         */
+        void commit() throws IOException {
+            out.flush();
+            channel.force(true);
+            channel.close();
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.util.datafix.DataFixesManager;
+import net.minecraftforge.common.util.CompoundDataFixer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Offline tool that runs the DataFixer on every cube and column of a world and writes them back, so that they don't
+ * need to be fixed each time they are loaded. Regions are upgraded in parallel, reading and writing is done one entry
+ * at a time.
+ * <p>
+ * Usage, with Minecraft, Forge and Cubic Chunks on the classpath and the world not opened by the game:
+ * {@code WorldUpgrader <world directory> [threads]}. All dimensions of the world are upgraded.
+ * <p>
+ * Only data fixers of Minecraft and Cubic Chunks are available outside of the game. Data written by this tool doesn't
+ * have the versions of data fixers of other mods, so it will still be fixed by them when loaded.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class WorldUpgrader {
+
+    // in entries, along each axis
+    private static final int REGION_SIZE_2D = 32;
+    private static final int REGION_SIZE_3D = 16;
+
+    private final DataFixer fixer;
+    private final int dataVersion;
+    private final NBTTagCompound versionData = new NBTTagCompound();
+
+    private final AtomicInteger regionsDone = new AtomicInteger();
+    private final AtomicInteger upgraded = new AtomicInteger();
+    private final AtomicInteger upToDate = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public WorldUpgrader(DataFixer fixer) {
+        this.fixer = fixer;
+        this.dataVersion = fixer.version;
+        if (fixer instanceof CompoundDataFixer) {
+            ((CompoundDataFixer) fixer).writeVersionData(versionData);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: WorldUpgrader <world directory> [threads]");
+            System.exit(1);
+        }
+        Path world = Paths.get(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Bootstrap.register();
+        DataFixer fixer = DataFixesManager.createFixer();
+        if (fixer instanceof CompoundDataFixer) {
+            // so that the cubic chunks data version is written, the mod doesn't have any fixes for cubes and columns
+            ((CompoundDataFixer) fixer).init(CubicChunks.MODID, CubicChunks.FIXER_VERSION);
+        }
+        new WorldUpgrader(fixer).upgradeWorld(world, threads);
+    }
+
+    public void upgradeWorld(Path world, int threads) throws IOException, InterruptedException {
+        List<Path> dimensions;
+        try (Stream<Path> dirs = Files.walk(world, 2)) {
+            dimensions = dirs.filter(dir -> Files.isDirectory(dir.resolve("region2d")) || Files.isDirectory(dir.resolve("region3d")))
+                    .collect(Collectors.toList());
+        }
+        if (dimensions.isEmpty()) {
+            System.err.println("No cubic chunks regions found in " + world);
+            return;
+        }
+        for (Path dimension : dimensions) {
+            upgradeDimension(dimension, threads);
+        }
+    }
+
+    private void upgradeDimension(Path dimension, int threads) throws IOException, InterruptedException {
+        List<Path> regions2d = listRegions(dimension.resolve("region2d"));
+        List<Path> regions3d = listRegions(dimension.resolve("region3d"));
+        int total = regions2d.size() + regions3d.size();
+        System.out.printf("Upgrading %s: %d column regions, %d cube regions, using %d threads%n",
+                dimension, regions2d.size(), regions3d.size(), threads);
+
+        regionsDone.set(0);
+        upgraded.set(0);
+        upToDate.set(0);
+        failed.set(0);
+        long start = System.nanoTime();
+
+        SaveCubeColumns save = SaveCubeColumns.create(dimension);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Path region : regions2d) {
+                executor.execute(() -> upgradeRegion(save, region, false));
+            }
+            for (Path region : regions3d) {
+                executor.execute(() -> upgradeRegion(save, region, true));
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                printProgress(total);
+            }
+        } finally {
+            executor.shutdownNow();
+            save.close();
+        }
+        printProgress(total);
+        System.out.printf("Done in %d s%n", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    private void printProgress(int totalRegions) {
+        System.out.printf("%d/%d regions, %d entries upgraded, %d already up to date, %d failed%n",
+                regionsDone.get(), totalRegions, upgraded.get(), upToDate.get(), failed.get());
+    }
+
+    private static List<Path> listRegions(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private void upgradeRegion(SaveCubeColumns save, Path region, boolean is3d) {
+        try {
+            String name = region.getFileName().toString();
+            int[] coords = parseRegionName(name, is3d ? 3 : 2);
+            if (coords == null) {
+                System.err.println("Skipping unknown file " + region);
+                return;
+            }
+            if (is3d) {
+                int size = REGION_SIZE_3D;
+                if (!new EntryLocation3D(coords[0] * size, coords[1] * size, coords[2] * size).getRegionKey().getName().equals(name)) {
+                    System.err.println("Skipping region with unexpected name " + region);
+                    return;
+                }
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        for (int z = 0; z < size; z++) {
+                            EntryLocation3D loc = new EntryLocation3D(coords[0] * size + x, coords[1] * size + y, coords[2] * size + z);
+                            upgradeEntry(save, loc, save::load, save::save3d);
+                        }
+                    }
+                }
+            } else {
+                int size = REGION_SIZE_2D;
+                if (!new EntryLocation2D(coords[0] * size, coords[1] * size).getRegionKey().getName().equals(name)) {
+                    System.err.println("Skipping region with unexpected name " + region);
+                    return;
+                }
+                for (int x = 0; x < size; x++) {
+                    for (int z = 0; z < size; z++) {
+                        upgradeEntry(save, new EntryLocation2D(coords[0] * size + x, coords[1] * size + z), save::load, save::save2d);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error upgrading region " + region);
+            e.printStackTrace();
+        } finally {
+            regionsDone.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return region coordinates from a region file name like {@code 1.-2.3dr}, or null if it's not a region file
+     */
+    @Nullable private static int[] parseRegionName(String name, int dimensions) {
+        String[] parts = name.split("\\.");
+        if (parts.length != dimensions + 1 || !parts[dimensions].equals(dimensions + "dr")) {
+            return null;
+        }
+        int[] coords = new int[dimensions];
+        try {
+            for (int i = 0; i < dimensions; i++) {
+                coords[i] = Integer.parseInt(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return coords;
+    }
+
+    private <T> void upgradeEntry(SaveCubeColumns save, T loc, EntryReader<T> reader, EntryWriter<T> writer) {
+        try {
+            Optional<ByteBuffer> buf;
+            synchronized (save) {
+                buf = reader.read(loc);
+            }
+            if (!buf.isPresent()) {
+                return;
+            }
+            byte[] newEntry = upgrade(CompressionCodecs.toArray(buf.get()));
+            if (newEntry == null) {
+                upToDate.incrementAndGet();
+                return;
+            }
+            synchronized (save) {
+                writer.write(loc, ByteBuffer.wrap(newEntry));
+            }
+            upgraded.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.err.println("Error upgrading " + loc + ": " + e);
+        }
+    }
+
+    /**
+     * @return the upgraded entry, compressed with the same codec, or null if it's already up to date
+     */
+    @Nullable byte[] upgrade(byte[] entry) throws IOException {
+        if (CubeBinaryCodec.isSectioned(entry)) {
+            CubeBinaryCodec.DecodedCube decoded = CubeBinaryCodec.decode(entry, true);
+            if (CubeDataFixer.isUpToDate(fixer, decoded.nbt)) {
+                return null;
+            }
+            NBTTagCompound fixed = CubeDataFixer.process(fixer, decoded.nbt);
+            CubeSnapshot snapshot = CubeSnapshot.fromDecoded(new CubeBinaryCodec.DecodedCube(fixed, decoded.storage));
+            return CubeBinaryCodec.encodeSectioned(snapshot, dataVersion, versionData, CompressionCodecs.fromConfig());
+        }
+        // old binary entries are not wrapped in a compression codec
+        boolean legacyBinary = CubeBinaryCodec.isBinary(entry);
+        ICompressionCodec codec = legacyBinary ? CompressionCodecs.fromConfig() : CompressionCodecs.forEntry(entry);
+        if (codec == null) {
+            throw new IOException("Unknown compression codec " + (entry.length == 0 ? "(empty entry)" : Integer.toHexString(entry[0] & 0xFF)));
+        }
+        if (codec == CompressionCodecs.deflate(0)) {
+            // the level isn't stored, use the default one
+            codec = CompressionCodecs.deflate(6);
+        }
+        byte[] data = legacyBinary ? entry : codec.decompress(entry);
+
+        if (CubeBinaryCodec.isBinary(data)) {
+            CubeBinaryCodec.DecodedCube decoded = CubeBinaryCodec.decode(data, true);
+            if (!legacyBinary && CubeDataFixer.isUpToDate(fixer, decoded.nbt)) {
+                return null;
+            }
+            NBTTagCompound fixed = CubeDataFixer.process(fixer, decoded.nbt);
+            CubeSnapshot snapshot = CubeSnapshot.fromDecoded(new CubeBinaryCodec.DecodedCube(fixed, decoded.storage));
+            return codec.compress(CubeBinaryCodec.encode(snapshot, dataVersion, versionData));
+        }
+        NBTTagCompound nbt = RegionCubeIO.readNbt(data);
+        if (CubeDataFixer.isUpToDate(fixer, nbt)) {
+            return null;
+        }
+        NBTTagCompound fixed = CubeDataFixer.process(fixer, nbt);
+        fixed.setInteger("DataVersion", dataVersion);
+        for (String key : versionData.getKeySet()) {
+            fixed.setTag(key, versionData.getTag(key));
+        }
+        return codec.compress(IONbtWriter.writeUncompressedNbtBytes(fixed));
+    }
+
+    @FunctionalInterface
+    private interface EntryReader<T> {
+
+        Optional<ByteBuffer> read(T pos) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface EntryWriter<T> {
+
+        void write(T pos, ByteBuffer data) throws IOException;
+    }
+}
@@ -76,5 +76,9 @@ class AsyncColumnIOProvider extends AsyncIOProvider<IColumn> {
             this.finished = true;
             this.notifyAll();
         }
+        if (this.column != null) {
+            // the column has been generated before, so most likely its cubes have been too
+            AsyncWorldIOExecutor.prefetchCubes(this.colInfo, this.column, this.loader);
+        }
     }
 }
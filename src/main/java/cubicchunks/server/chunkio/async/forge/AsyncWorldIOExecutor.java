@@ -67,8 +67,10 @@ public class AsyncWorldIOExecutor {
     private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
 
     private static final AtomicInteger threadCounter = new AtomicInteger();
-    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(),
+    // ThreadPoolExecutor only starts more than core threads when the queue is full, so use a queue that refuses
+    // tasks while more threads can be started. Cube loading is mostly decompression and parsing NBT, so it scales with cores.
+    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, getMaxCubeThreads(), 60L, TimeUnit.SECONDS,
+            new GrowingQueue(),
 
             // Sponge start: Use lambda
             r -> {
@@ -79,6 +81,11 @@ public class AsyncWorldIOExecutor {
             // Sponge end
     );
 
+    static {
+        // the queue refused the task, but no more threads can be started
+        cubeThreadPool.setRejectedExecutionHandler((task, executor) -> ((GrowingQueue) executor.getQueue()).forceOffer(task));
+    }
+
     // use separate thread pool for cubes and columns to avoid situation where only cube tasks are being executed
     // all waiting for their columns
     private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
@@ -113,16 +120,20 @@ public class AsyncWorldIOExecutor {
     @Nullable
     public static Cube syncCubeLoad(ICubicWorld world, ICubeIO loader, CubeProviderServer cache, int cubeX, int cubeY, int cubeZ) {
         IColumn column = (IColumn) cache.loadChunk(cubeX, cubeZ);
+        long start = System.nanoTime();
         QueuedCube key = new QueuedCube(cubeX, cubeY, cubeZ, world);
         AsyncCubeIOProvider task = cubeTasks.remove(key); // Remove task because we will call the sync callbacks directly
+        SyncLoadProfiler.LoadType type;
         if (task != null) {
-            runTask(task);
+            type = runTask(task);
         } else {
+            type = SyncLoadProfiler.LoadType.DIRECT;
             task = new AsyncCubeIOProvider(key, loader);
             task.setColumn(column);
             task.run();
         }
         task.runSynchronousPart();
+        recordSyncLoad(world, false, type, start);
         return task.get();
     }
 
@@ -137,38 +148,54 @@ public class AsyncWorldIOExecutor {
      * @return The loaded column
      */
     @Nullable public static IColumn syncColumnLoad(ICubicWorld world, ICubeIO loader, int x, int z) {
+        long start = System.nanoTime();
         QueuedColumn key = new QueuedColumn(x, z, world);
         AsyncColumnIOProvider task = columnTasks.remove(key); // Remove task because we will call the sync callbacks directly
+        SyncLoadProfiler.LoadType type;
         if (task != null) {
-            runTask(task);
+            type = runTask(task);
         } else {
+            type = SyncLoadProfiler.LoadType.DIRECT;
             task = new AsyncColumnIOProvider(key, loader, ((CubeProviderServer) world.getCubeCache()).getCubeGenerator());
             task.run();
         }
         task.runSynchronousPart();
+        recordSyncLoad(world, true, type, start);
         return task.get();
     }
 
+    /**
+     * Records a synchronous load in {@link SyncLoadProfiler}, if it was done on the server thread
+     */
+    private static void recordSyncLoad(ICubicWorld world, boolean column, SyncLoadProfiler.LoadType type, long start) {
+        MinecraftServer server = world.getMinecraftServer();
+        if (server != null && server.isCallingFromMinecraftThread()) {
+            SyncLoadProfiler.record(column, type, System.nanoTime() - start);
+        }
+    }
+
     /**
      * Runs the async part in current thread or blocks until already running async part is finished
      */
-    private static void runTask(AsyncCubeIOProvider task) {
-        runTask(cubeThreadPool, task);
+    private static SyncLoadProfiler.LoadType runTask(AsyncCubeIOProvider task) {
+        return runTask(cubeThreadPool, task);
     }
 
     /**
      * Runs the async part in current thread or blocks until already running async part is finished
      */
-    private static void runTask(AsyncColumnIOProvider task) {
-        runTask(columnThreadPool, task);
+    private static SyncLoadProfiler.LoadType runTask(AsyncColumnIOProvider task) {
+        return runTask(columnThreadPool, task);
     }
 
     /**
      * Runs the async part in current thread or blocks until already running async part is finished.
      * <p>
      * Uses the given ThreadPoolExecutor.
+     *
+     * @return whether the task was run in current thread or waited for
      */
-    private static void runTask(ThreadPoolExecutor executor, AsyncIOProvider task) {
+    private static SyncLoadProfiler.LoadType runTask(ThreadPoolExecutor executor, AsyncIOProvider task) {
         if (!executor.remove(task)) // If it wasn't in the pool, and run hasn't isFinished, then wait for the async thread.
         {
             synchronized (task) // Warn incorrect - task shared via map
@@ -182,9 +209,11 @@ public class AsyncWorldIOExecutor {
                     }
                 }
             }
+            return SyncLoadProfiler.LoadType.WAITED;
         } else {
             // If the task was not run yet we still need to load the Cube
             task.run();
+            return SyncLoadProfiler.LoadType.STOLEN;
         }
     }
 
@@ -254,6 +283,31 @@ public class AsyncWorldIOExecutor {
         }
     }
 
+    /**
+     * Read the cubes of a just loaded column that are waiting for it, in one pass over the region file. Called from the
+     * column loading thread, before the cube loads can start.
+     *
+     * @param key The column that has been loaded
+     * @param column The loaded column
+     * @param loader The file loader for this world
+     */
+    static void prefetchCubes(QueuedColumn key, IColumn column, ICubeIO loader) {
+        if (!CubicChunks.Config.BoolOptions.PREFETCH_COLUMN_CUBES.getValue()) {
+            return;
+        }
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (QueuedCube cube : loadingCubesColumnMap.get(key)) {
+            minY = Math.min(minY, cube.y);
+            maxY = Math.max(maxY, cube.y);
+        }
+        // there can be cubes waiting for the column at different heights, don't read everything between them
+        if (minY > maxY || maxY - minY > CubicChunks.Config.IntOptions.VERTICAL_CUBE_LOAD_DISTANCE.getValue() * 2) {
+            return;
+        }
+        loader.prefetchCubes(column, minY, maxY);
+    }
+
     /**
      * Notify the loader that this cube isn't needed anymore
      *
@@ -332,12 +386,26 @@ public class AsyncWorldIOExecutor {
     }
 
     /**
-     * Resize async loading pool thread count when players join or leave
+     * Resize async loading pool thread count when players join or leave, and apply the configured maximum thread count
      *
      * @param players New player count
      */
     private static void adjustPoolSize(int players) {
-        cubeThreadPool.setCorePoolSize(Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD));
+        int maxThreads = getMaxCubeThreads();
+        int coreThreads = Math.min(maxThreads, Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD));
+        // core pool size can't be bigger than maximum pool size, change them in the right order
+        if (maxThreads > cubeThreadPool.getMaximumPoolSize()) {
+            cubeThreadPool.setMaximumPoolSize(maxThreads);
+            cubeThreadPool.setCorePoolSize(coreThreads);
+        } else {
+            cubeThreadPool.setCorePoolSize(coreThreads);
+            cubeThreadPool.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    private static int getMaxCubeThreads() {
+        int threads = CubicChunks.Config.IntOptions.CUBE_IO_THREADS.getValue();
+        return Math.max(BASE_THREADS, threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
     }
 
     public static boolean canDropColumn(ICubicWorld world, int x, int z) {
@@ -361,9 +429,37 @@ public class AsyncWorldIOExecutor {
         }
     }
 
+    /**
+     * Task queue that makes the thread pool start a new thread instead of queueing a task, while all threads are busy and
+     * the maximum pool size isn't reached.
+     */
+    private static class GrowingQueue extends LinkedBlockingQueue<Runnable> {
+
+        @Override public boolean offer(Runnable task) {
+            ThreadPoolExecutor executor = cubeThreadPool;
+            // executor is null only while it's being created
+            if (executor != null && executor.getActiveCount() >= executor.getPoolSize()
+                    && executor.getPoolSize() < executor.getMaximumPoolSize()) {
+                return false;
+            }
+            return super.offer(task);
+        }
+
+        void forceOffer(Runnable task) {
+            super.offer(task);
+        }
+    }
+
     // Sync completion of loading
     @SubscribeEvent
     public static void onWorldTick(TickEvent.WorldTickEvent evt) {
         tick();
     }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent evt) {
+        if (evt.phase == TickEvent.Phase.END) {
+            SyncLoadProfiler.endTick();
+        }
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.async.forge;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Counts and times cube and column loads that the server thread had to do synchronously, instead of waiting for them to
+ * be loaded in the background. While stack sampling is enabled, loads are also grouped by the code that caused them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class SyncLoadProfiler {
+
+    /**
+     * How a synchronous load got its cube or column
+     */
+    public enum LoadType {
+        /**
+         * Nothing was queued, the load ran on the server thread
+         */
+        DIRECT,
+        /**
+         * A queued load that didn't start yet was taken out of the queue and ran on the server thread
+         */
+        STOLEN,
+        /**
+         * The server thread waited for a load already running on an I/O thread
+         */
+        WAITED
+    }
+
+    // ticks for which blocked time is kept
+    private static final int TICK_HISTORY = 20 * 10;
+    // stack frames used to tell call sites apart
+    private static final int CALL_SITE_DEPTH = 16;
+    // stop adding call sites after this many, so that a long profiling session can't use up memory
+    private static final int MAX_CALL_SITES = 1024;
+
+    private static final long[] count = new long[LoadType.values().length];
+    private static final long[] nanos = new long[LoadType.values().length];
+    private static final long[] tickNanos = new long[TICK_HISTORY];
+    private static int tick = 0;
+
+    private static final Map<List<StackTraceElement>, CallSite> callSites = new HashMap<>();
+    private static volatile boolean sampleStacks = false;
+
+    private SyncLoadProfiler() {
+        throw new Error();
+    }
+
+    /**
+     * Records a synchronous load done on the server thread
+     *
+     * @param column true for column loads, false for cube loads
+     * @param type how the load was done
+     * @param loadNanos time the load blocked the server thread, in nanoseconds
+     */
+    static synchronized void record(boolean column, LoadType type, long loadNanos) {
+        count[type.ordinal()]++;
+        nanos[type.ordinal()] += loadNanos;
+        tickNanos[Math.floorMod(tick, TICK_HISTORY)] += loadNanos;
+
+        if (!sampleStacks) {
+            return;
+        }
+        List<StackTraceElement> key = getCallSite(new Throwable().getStackTrace());
+        CallSite site = callSites.get(key);
+        if (site == null) {
+            if (callSites.size() >= MAX_CALL_SITES) {
+                return;
+            }
+            site = new CallSite(key);
+            callSites.put(key, site);
+        }
+        if (column) {
+            site.columns++;
+        } else {
+            site.cubes++;
+        }
+        site.nanos += loadNanos;
+    }
+
+    // the stack trace starting at the code that asked for the load
+    private static List<StackTraceElement> getCallSite(StackTraceElement[] trace) {
+        int start = 0;
+        while (start < trace.length && (trace[start].getClassName().equals(SyncLoadProfiler.class.getName())
+                || trace[start].getClassName().equals(AsyncWorldIOExecutor.class.getName()))) {
+            start++;
+        }
+        return Arrays.asList(Arrays.copyOfRange(trace, start, Math.min(trace.length, start + CALL_SITE_DEPTH)));
+    }
+
+    /**
+     * Starts a new tick window entry. Called at the end of each server tick.
+     */
+    static synchronized void endTick() {
+        tick++;
+        tickNanos[Math.floorMod(tick, TICK_HISTORY)] = 0;
+    }
+
+    /**
+     * Enables or disables grouping loads by call site. Taking a stack trace for every synchronous load is too slow to
+     * do all the time.
+     */
+    public static void setSampleStacks(boolean sample) {
+        sampleStacks = sample;
+    }
+
+    public static boolean isSamplingStacks() {
+        return sampleStacks;
+    }
+
+    public static synchronized void reset() {
+        Arrays.fill(count, 0);
+        Arrays.fill(nanos, 0);
+        Arrays.fill(tickNanos, 0);
+        callSites.clear();
+    }
+
+    /**
+     * @return counts and total time of synchronous loads of each type, and the time blocked in the last ticks
+     */
+    public static synchronized List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        for (LoadType type : LoadType.values()) {
+            lines.add(String.format("%s: %d loads, %d ms", type.name().toLowerCase(), count[type.ordinal()],
+                    TimeUnit.NANOSECONDS.toMillis(nanos[type.ordinal()])));
+        }
+        lines.add(String.format("blocked in the last 20 ticks: %.1f ms, last %d ticks: %.1f ms, worst tick: %.1f ms",
+                toMillis(blockedNanos(20)), TICK_HISTORY, toMillis(blockedNanos(TICK_HISTORY)), toMillis(worstTickNanos())));
+        return lines;
+    }
+
+    /**
+     * @param limit the maximum number of call sites to return
+     *
+     * @return the call sites that blocked the server thread for the longest time, in descending order
+     */
+    public static synchronized List<CallSite> getTopCallSites(int limit) {
+        List<CallSite> sites = new ArrayList<>(callSites.values());
+        sites.sort(Comparator.comparingLong((CallSite site) -> site.nanos).reversed());
+        return Collections.unmodifiableList(new ArrayList<>(sites.subList(0, Math.min(limit, sites.size()))));
+    }
+
+    // blocked time in the given number of ticks, including the current one
+    private static long blockedNanos(int ticks) {
+        long total = 0;
+        for (int i = 0; i < ticks; i++) {
+            total += tickNanos[Math.floorMod(tick - i, TICK_HISTORY)];
+        }
+        return total;
+    }
+
+    private static long worstTickNanos() {
+        long max = 0;
+        for (long n : tickNanos) {
+            max = Math.max(max, n);
+        }
+        return max;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Synchronous loads caused by the same code
+     */
+    public static class CallSite {
+
+        private final List<StackTraceElement> stackTrace;
+        private long cubes;
+        private long columns;
+        private long nanos;
+
+        CallSite(List<StackTraceElement> stackTrace) {
+            this.stackTrace = stackTrace;
+        }
+
+        public List<StackTraceElement> getStackTrace() {
+            return stackTrace;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d cubes, %d columns, %.1f ms", cubes, columns, toMillis(nanos));
+        }
+    }
+}
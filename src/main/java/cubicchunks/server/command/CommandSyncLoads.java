@@ -0,0 +1,127 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.command;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.server.chunkio.async.forge.SyncLoadProfiler;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Shows how often and for how long the server thread had to load cubes and columns synchronously, and which code caused
+ * it. Full stack traces of the call sites are written to the log.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CommandSyncLoads extends CommandBase {
+
+    private static final int DEFAULT_CALL_SITES = 5;
+
+    @Override
+    public String getName() {
+        return "syncloads";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "commands.cubicchunks.syncloads.usage";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 2;
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length == 0) {
+            throw new WrongUsageException(getUsage(sender));
+        }
+        switch (args[0]) {
+            case "start":
+                SyncLoadProfiler.setSampleStacks(true);
+                sender.sendMessage(new TextComponentString("Recording call sites of synchronous loads"));
+                break;
+            case "stop":
+                SyncLoadProfiler.setSampleStacks(false);
+                sender.sendMessage(new TextComponentString("Stopped recording call sites of synchronous loads"));
+                break;
+            case "reset":
+                SyncLoadProfiler.reset();
+                sender.sendMessage(new TextComponentString("Synchronous load statistics cleared"));
+                break;
+            case "dump":
+                int limit = args.length > 1 ? parseInt(args[1], 1) : DEFAULT_CALL_SITES;
+                dump(sender, limit);
+                break;
+            default:
+                throw new WrongUsageException(getUsage(sender));
+        }
+    }
+
+    private void dump(ICommandSender sender, int limit) {
+        for (String line : SyncLoadProfiler.getSummary()) {
+            sender.sendMessage(new TextComponentString(line));
+        }
+        List<SyncLoadProfiler.CallSite> callSites = SyncLoadProfiler.getTopCallSites(limit);
+        if (callSites.isEmpty()) {
+            if (!SyncLoadProfiler.isSamplingStacks()) {
+                sender.sendMessage(new TextComponentString("No call sites recorded, use /syncloads start to record them"));
+            }
+            return;
+        }
+        int i = 1;
+        for (SyncLoadProfiler.CallSite site : callSites) {
+            List<StackTraceElement> trace = site.getStackTrace();
+            sender.sendMessage(new TextComponentString("#" + i + " " + site + (trace.isEmpty() ? "" : " at " + trace.get(0))));
+            StringBuilder sb = new StringBuilder("Synchronous load call site #").append(i).append(": ").append(site);
+            for (StackTraceElement element : trace) {
+                sb.append("\n\tat ").append(element);
+            }
+            CubicChunks.LOGGER.info(sb.toString());
+            i++;
+        }
+        sender.sendMessage(new TextComponentString("Full stack traces were written to the log"));
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+        if (args.length == 1) {
+            return getListOfStringsMatchingLastWord(args, "dump", "start", "stop", "reset");
+        }
+        return Collections.emptyList();
+    }
+}
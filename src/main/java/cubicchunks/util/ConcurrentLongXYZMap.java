@@ -0,0 +1,128 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Iterator;
+import java.util.concurrent.locks.StampedLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A {@link LongXYZMap} that can be read from any thread while it is modified.
+ * <p>
+ * Modifications take a write lock. Lookups first search the table without locking and only take a read lock if a
+ * modification happened during the search, so reads from the thread that modifies the map are almost as fast as in a
+ * plain {@link LongXYZMap}, and worker threads don't block each other.
+ * <p>
+ * Only {@link #get(int, int, int)}, {@link #contains(int, int, int)} and {@link #getSize()} are safe to call from
+ * other threads. Iterating still has to happen on the thread that modifies the map.
+ *
+ * @param <T> class of the objects to be contained in this map
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ConcurrentLongXYZMap<T extends XYZAddressable> extends LongXYZMap<T> {
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Creates a new ConcurrentLongXYZMap with the given load factor and initial capacity. The map will automatically
+     * grow if the specified load is surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public ConcurrentLongXYZMap(float loadFactor, int capacity) {
+        super(loadFactor, capacity);
+    }
+
+    @Nullable @Override
+    public T put(T value) {
+        long stamp = lock.writeLock();
+        try {
+            return super.put(value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Nullable @Override
+    public T remove(int x, int y, int z) {
+        long stamp = lock.writeLock();
+        try {
+            return super.remove(x, y, z);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Nullable @Override
+    public T get(int x, int y, int z) {
+        // coordinates outside of the packed range are in an XYZMap that can't be read during modification
+        if (isPackable(x, y, z)) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                T value = getRacy(x, y, z);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return super.get(x, y, z);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<T> it = super.iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                long stamp = lock.writeLock();
+                try {
+                    it.remove();
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+        };
+    }
+}
@@ -90,8 +90,11 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         for (int relativeCubeX = 0; relativeCubeX < dx; relativeCubeX++) {
             for (int relativeCubeZ = 0; relativeCubeZ < dz; relativeCubeZ++) {
                 this.columns[relativeCubeX][relativeCubeZ] = prov.getLoadedColumn(originX + relativeCubeX, originZ + relativeCubeZ);
+                Cube cube = null;
                 for (int relativeCubeY = 0; relativeCubeY < dy; relativeCubeY++) {
-                    Cube cube = prov.getLoadedCube(originX + relativeCubeX, originY + relativeCubeY, originZ + relativeCubeZ);
+                    // follow the link to the cube above when possible, only look up cubes after a gap
+                    cube = cube != null ? cube.getLoadedNeighbor(EnumFacing.UP)
+                            : prov.getLoadedCube(originX + relativeCubeX, originY + relativeCubeY, originZ + relativeCubeZ);
                     if (cube != null) {
                         ExtendedBlockStorage storage = cube.getStorage();
                         this.cache[relativeCubeX][relativeCubeY][relativeCubeZ] = storage;
@@ -189,6 +192,10 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
             } else {
                 ebs.setBlockLight(localX, localY, localZ, val);
             }
+            Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+            if (cube != null) {
+                cube.markDirty(Cube.SECTION_LIGHT);
+            }
             return true;
         }
         Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
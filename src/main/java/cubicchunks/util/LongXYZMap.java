@@ -0,0 +1,551 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import com.google.common.collect.AbstractIterator;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hash table implementation for objects in a 3-dimensional cartesian coordinate system, keyed by the coordinates packed
+ * into a long.
+ * <p>
+ * Keys and values are stored in two parallel arrays and collisions are resolved with linear probing, so a lookup
+ * compares primitive keys and doesn't call {@link XYZAddressable#getX()}, {@link XYZAddressable#getY()} and
+ * {@link XYZAddressable#getZ()} for every probed element like {@link XYZMap} does.
+ * <p>
+ * The packed key holds 22 bits of x and z and 20 bits of y, which covers the whole 30 million block world border
+ * horizontally and 8 million blocks above and below y=0. Elements outside of that range are kept in a separate
+ * {@link XYZMap}.
+ *
+ * @param <T> class of the objects to be contained in this map
+ *
+ * @see XYZAddressable
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class LongXYZMap<T extends XYZAddressable> implements Iterable<T> {
+
+    private static final int XZ_BITS = 22;
+    private static final int Y_BITS = 20;
+
+    /**
+     * 2^64 divided by the golden ratio, used to spread the packed keys over the table (fibonacci hashing)
+     */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * packed coordinates of the elements, only valid where {@link #values} is not null
+     */
+    private long[] keys;
+    /**
+     * elements of this map, null for free slots
+     */
+    private Object[] values;
+    /**
+     * the number of elements in the backing arrays
+     */
+    private int size = 0;
+
+    /**
+     * the maximum permissible load of the backing arrays, after reaching it the arrays will be resized
+     */
+    private final float loadFactor;
+
+    /**
+     * the load threshold of the backing arrays, after reaching it the arrays will be resized
+     */
+    private int loadThreshold;
+
+    /**
+     * binary mask used to wrap indices
+     */
+    private int mask;
+
+    /**
+     * 64 minus the number of index bits, the amount a hash is shifted by to get an index
+     */
+    private int shift;
+
+    /**
+     * elements with coordinates that don't fit into a packed key, created when the first one is added
+     */
+    @Nullable private XYZMap<T> outOfRange;
+
+    /**
+     * Creates a new LongXYZMap with the given load factor and initial capacity. The map will automatically grow if the
+     * specified load is surpassed.
+     *
+     * @param loadFactor the load factor
+     * @param capacity the initial capacity
+     */
+    public LongXYZMap(float loadFactor, int capacity) {
+        if (loadFactor <= 0 || loadFactor >= 1.0) {
+            throw new IllegalArgumentException("Load factor must be between 0 and 1, but was " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+
+        int tCapacity = 2;
+        while (tCapacity < capacity) {
+            tCapacity <<= 1;
+        }
+        this.keys = new long[tCapacity];
+        this.values = new Object[tCapacity];
+        this.refreshFields();
+    }
+
+    /**
+     * Returns the number of elements in this map
+     *
+     * @return the number of elements in this map
+     */
+    public int getSize() {
+        return this.size + (this.outOfRange == null ? 0 : this.outOfRange.getSize());
+    }
+
+    /**
+     * Checks if the given coordinates can be packed into a key without loss
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if the coordinates fit into a packed key
+     */
+    static boolean isPackable(int x, int y, int z) {
+        return (x << (32 - XZ_BITS)) >> (32 - XZ_BITS) == x
+                && (y << (32 - Y_BITS)) >> (32 - Y_BITS) == y
+                && (z << (32 - XZ_BITS)) >> (32 - XZ_BITS) == z;
+    }
+
+    /**
+     * Packs the given coordinates into a key. The coordinates must be checked with
+     * {@link #isPackable(int, int, int)} first.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the packed key
+     */
+    private static long pack(int x, int y, int z) {
+        return ((long) x << (XZ_BITS + Y_BITS))
+                | (((long) z & ((1L << XZ_BITS) - 1)) << Y_BITS)
+                | ((long) y & ((1L << Y_BITS) - 1));
+    }
+
+    /**
+     * Computes the desired index for the given key, based on the map's current capacity.
+     *
+     * @param key the packed key
+     *
+     * @return the desired index for the given key
+     */
+    private int getIndex(long key) {
+        // the highest bits of the product depend on all bits of the key
+        return (int) ((key * HASH_MULTIPLIER) >>> this.shift);
+    }
+
+    /**
+     * Associates the given value with its xyz-coordinates. If the map previously contained a mapping for these
+     * coordinates, the old value is replaced.
+     *
+     * @param value value to be associated with its coordinates
+     *
+     * @return the previous value associated with the given value's coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T put(T value) {
+        int x = value.getX();
+        int y = value.getY();
+        int z = value.getZ();
+        if (!isPackable(x, y, z)) {
+            if (this.outOfRange == null) {
+                this.outOfRange = new XYZMap<>(this.loadFactor, 16);
+            }
+            return this.outOfRange.put(value);
+        }
+        long key = pack(x, y, z);
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int index = this.getIndex(key);
+        Object old;
+        while ((old = values[index]) != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return (T) old;
+            }
+            index = (index + 1) & this.mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+
+        // If the load threshold has been reached, increase the map's size.
+        if (++this.size > this.loadThreshold) {
+            this.grow();
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry associated with the given coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such entry exists
+     */
+    @Nullable
+    public T remove(int x, int y, int z) {
+        return this.removeEntry(x, y, z);
+    }
+
+    /**
+     * Implementation of {@link #remove(int, int, int)}, which is also used by the iterator so that it doesn't depend on
+     * subclasses overriding it.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private T removeEntry(int x, int y, int z) {
+        if (!isPackable(x, y, z)) {
+            return this.outOfRange == null ? null : this.outOfRange.remove(x, y, z);
+        }
+        long key = pack(x, y, z);
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int index = this.getIndex(key);
+        Object value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                this.size--;
+                this.shiftKeys(index, null);
+                return (T) value;
+            }
+            index = (index + 1) & this.mask;
+        }
+        // nothing was removed
+        return null;
+    }
+
+    /**
+     * Removes and returns the given value from this map. More specifically, removes the entry whose xyz-coordinates
+     * equal the given value's coordinates.
+     *
+     * @param value the value to be removed
+     *
+     * @return the entry associated with the given value's coordinates or null if no such entry exists
+     */
+    @Nullable
+    public T remove(T value) {
+        return this.remove(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Returns the value associated with the given coordinates or null if no such value exists.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates or null if no such value exists
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        if (!isPackable(x, y, z)) {
+            return this.outOfRange == null ? null : this.outOfRange.get(x, y, z);
+        }
+        long key = pack(x, y, z);
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int index = this.getIndex(key);
+        Object value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return (T) value;
+            }
+            index = (index + 1) & this.mask;
+        }
+        // nothing was found
+        return null;
+    }
+
+    /**
+     * Like {@link #get(int, int, int)}, but doesn't throw or loop forever when the map is modified by another thread
+     * at the same time. The result is only correct if there was no modification while it ran, which the caller has to
+     * check. The coordinates must be checked with {@link #isPackable(int, int, int)} first.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the entry associated with the specified coordinates, or null if no such value exists or the map was
+     *         modified while searching
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    T getRacy(int x, int y, int z) {
+        // the arrays are replaced when growing, so everything needed is derived from what this thread has read
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        if (keys.length != values.length) {
+            return null;
+        }
+        int mask = values.length - 1;
+        long key = pack(x, y, z);
+        int index = (int) ((key * HASH_MULTIPLIER) >>> (64 - Integer.numberOfTrailingZeros(values.length)));
+        for (int probes = 0; probes < values.length; probes++) {
+            Object value = values[index];
+            if (value == null) {
+                return null;
+            }
+            if (keys[index] == key) {
+                return (T) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if there exists an entry associated with the given xyz-coordinates in this map.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return true if there exists an entry associated with the given coordinates in this map
+     */
+    public boolean contains(int x, int y, int z) {
+        return this.get(x, y, z) != null;
+    }
+
+    /**
+     * Returns true if the given value is contained within this map. More specifically, returns true if there exists an
+     * entry in this map whose xyz-coordinates equal the given value's coordinates.
+     *
+     * @param value the value
+     *
+     * @return true if the given value is contained within this map
+     */
+    public boolean contains(T value) {
+        return this.contains(value.getX(), value.getY(), value.getZ());
+    }
+
+    /**
+     * Doubles the size of the backing arrays and redistributes all contained values accordingly.
+     */
+    private void grow() {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.keys = new long[oldKeys.length * 2];
+        this.values = new Object[oldValues.length * 2];
+        this.refreshFields();
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+            long key = oldKeys[i];
+            int index = this.getIndex(key);
+            while (this.values[index] != null) {
+                index = (index + 1) & this.mask;
+            }
+            this.keys[index] = key;
+            this.values[index] = oldValues[i];
+        }
+    }
+
+    /**
+     * Removes the value at the given index by shifting the following values of the same cluster to the left, so that
+     * no lookup stops at the freed slot too early.
+     *
+     * @param index the index of the removed value
+     * @param wrapped if not null, values moved from the start of the arrays to the end are added to it
+     */
+    private void shiftKeys(int index, @Nullable List<Object> wrapped) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int hole = index;
+        int current = index;
+        while (true) {
+            current = (current + 1) & this.mask;
+            Object value = values[current];
+            if (value == null) {
+                values[hole] = null;
+                return;
+            }
+            int desired = this.getIndex(keys[current]);
+            // the value can be moved to the hole if its desired index is not between the hole and its current index
+            boolean canMove = hole <= current
+                    ? desired <= hole || desired > current
+                    : desired <= hole && desired > current;
+            if (canMove) {
+                if (wrapped != null && current < hole) {
+                    wrapped.add(value);
+                }
+                keys[hole] = keys[current];
+                values[hole] = value;
+                hole = current;
+            }
+        }
+    }
+
+    /**
+     * Updates the load threshold and the index mask based on the backing arrays' current size.
+     */
+    private void refreshFields() {
+        // there always has to be at least one free slot to terminate lookups
+        this.loadThreshold = Math.min((int) (this.values.length * this.loadFactor), this.values.length - 1);
+        this.mask = this.values.length - 1;
+        this.shift = 64 - Integer.numberOfTrailingZeros(this.values.length);
+    }
+
+    // Interface: Iterable<T>
+    // ------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an iterator over all elements of this map. Elements can be removed with {@link Iterator#remove()}, but
+     * the iterator fails with a {@link ConcurrentModificationException} if the map grows while iterating.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            // iterating from the end, because removing shifts values towards the start
+            final Object[] values = LongXYZMap.this.values;
+            int at = values.length;
+            int remaining = size;
+            // index of the last returned value, -1 if it came from the wrapped list
+            int last = -1;
+            @Nullable Object lastValue;
+            // values that were moved behind the iterator by removing, returned after the arrays have been iterated
+            @Nullable List<Object> wrapped;
+            int wrappedAt = 0;
+            @Nullable final Iterator<T> outOfRangeIt = outOfRange == null ? null : outOfRange.iterator();
+            boolean lastOutOfRange = false;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0 || (outOfRangeIt != null && outOfRangeIt.hasNext());
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                checkModification();
+                if (remaining == 0) {
+                    if (outOfRangeIt == null) {
+                        throw new NoSuchElementException();
+                    }
+                    lastOutOfRange = true;
+                    T value = outOfRangeIt.next();
+                    lastValue = value;
+                    return value;
+                }
+                remaining--;
+                while (--at >= 0) {
+                    if (values[at] != null) {
+                        last = at;
+                        lastValue = values[at];
+                        return (T) lastValue;
+                    }
+                }
+                if (wrapped == null || wrappedAt >= wrapped.size()) {
+                    throw new ConcurrentModificationException();
+                }
+                last = -1;
+                lastValue = wrapped.get(wrappedAt++);
+                return (T) lastValue;
+            }
+
+            @Override
+            public void remove() {
+                checkModification();
+                if (lastValue == null) {
+                    throw new IllegalStateException();
+                }
+                if (lastOutOfRange) {
+                    outOfRangeIt.remove();
+                } else if (last >= 0) {
+                    if (wrapped == null) {
+                        wrapped = new ArrayList<>();
+                    }
+                    size--;
+                    shiftKeys(last, wrapped);
+                } else {
+                    XYZAddressable removed = (XYZAddressable) lastValue;
+                    removeEntry(removed.getX(), removed.getY(), removed.getZ());
+                }
+                lastValue = null;
+            }
+
+            private void checkModification() {
+                if (values != LongXYZMap.this.values) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        };
+    }
+
+    /**
+     * Return iterator over elements started from random position defined by seed. The iterator doesn't support
+     * removing elements.
+     *
+     * @param seed - define start position.
+     **/
+    public Iterator<T> randomWrappedIterator(int seed) {
+        return new AbstractIterator<T>() {
+
+            final Object[] values = LongXYZMap.this.values;
+            final int start = seed & (values.length - 1);
+            int checked = 0;
+            @Nullable final Iterator<T> outOfRangeIt = outOfRange == null ? null : outOfRange.iterator();
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected T computeNext() {
+                while (checked < values.length) {
+                    Object value = values[(start + checked++) & (values.length - 1)];
+                    if (value != null) {
+                        return (T) value;
+                    }
+                }
+                if (outOfRangeIt != null && outOfRangeIt.hasNext()) {
+                    return outOfRangeIt.next();
+                }
+                return endOfData();
+            }
+        };
+    }
+}
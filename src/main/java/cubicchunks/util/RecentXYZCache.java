@@ -0,0 +1,105 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A tiny cache of the most recently used objects in a 3-dimensional cartesian coordinate system, meant to be checked
+ * before a lookup in a larger map when the same few positions are accessed over and over again.
+ * <p>
+ * Lookups compare the coordinates of the cached objects themselves, so they never return an object for the wrong
+ * position, even when the cache is used from multiple threads at the same time. Concurrent use can only lose entries.
+ *
+ * @param <T> class of the objects to be contained in this cache
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class RecentXYZCache<T extends XYZAddressable> {
+
+    private final XYZAddressable[] entries;
+    private final int mask;
+    // index of the entry that will be replaced next
+    private int next = 0;
+
+    /**
+     * @param size the number of cached objects, rounded up to a power of two
+     */
+    public RecentXYZCache(int size) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.entries = new XYZAddressable[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Returns the cached object at the given coordinates
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     *
+     * @return the object at the given coordinates, or null if it's not cached
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y, int z) {
+        for (XYZAddressable entry : entries) {
+            if (entry != null && entry.getX() == x && entry.getY() == y && entry.getZ() == z) {
+                return (T) entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the given object to this cache, replacing the one that was added first
+     *
+     * @param value the object to cache
+     */
+    public void put(T value) {
+        entries[next++ & mask] = value;
+    }
+
+    /**
+     * Removes the object at the given coordinates from this cache, if it's cached
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     */
+    public void remove(int x, int y, int z) {
+        for (int i = 0; i < entries.length; i++) {
+            XYZAddressable entry = entries[i];
+            if (entry != null && entry.getX() == x && entry.getY() == y && entry.getZ() == z) {
+                entries[i] = null;
+            }
+        }
+    }
+}
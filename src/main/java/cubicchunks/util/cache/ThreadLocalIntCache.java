@@ -0,0 +1,95 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util.cache;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Per-thread replacement for the global array pool in {@link net.minecraft.world.gen.layer.IntCache}.
+ * <p>
+ * Vanilla keeps a single static pool and {@code resetIntCache()} hands every array in use back to it, so two threads
+ * running biome layers at the same time end up writing into each other's arrays. Each thread gets its own pool here,
+ * the allocation logic is the same as in vanilla.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class ThreadLocalIntCache {
+
+    private static final int SMALL_ARRAY_SIZE = 256;
+
+    private static final ThreadLocal<ThreadLocalIntCache> CACHES = ThreadLocal.withInitial(ThreadLocalIntCache::new);
+
+    private int largeArraySize = SMALL_ARRAY_SIZE;
+    private final List<int[]> freeSmallArrays = new ArrayList<>();
+    private final List<int[]> inUseSmallArrays = new ArrayList<>();
+    private final List<int[]> freeLargeArrays = new ArrayList<>();
+    private final List<int[]> inUseLargeArrays = new ArrayList<>();
+
+    private ThreadLocalIntCache() {
+    }
+
+    public static ThreadLocalIntCache get() {
+        return CACHES.get();
+    }
+
+    public int[] getIntCache(int size) {
+        if (size <= SMALL_ARRAY_SIZE) {
+            int[] array = freeSmallArrays.isEmpty() ? new int[SMALL_ARRAY_SIZE] : freeSmallArrays.remove(freeSmallArrays.size() - 1);
+            inUseSmallArrays.add(array);
+            return array;
+        }
+        if (size > largeArraySize) {
+            largeArraySize = size;
+            freeLargeArrays.clear();
+            inUseLargeArrays.clear();
+        }
+        int[] array = freeLargeArrays.isEmpty() ? new int[largeArraySize] : freeLargeArrays.remove(freeLargeArrays.size() - 1);
+        inUseLargeArrays.add(array);
+        return array;
+    }
+
+    public void resetIntCache() {
+        // like vanilla, drop one free array per reset so that the pool shrinks back after a burst
+        if (!freeLargeArrays.isEmpty()) {
+            freeLargeArrays.remove(freeLargeArrays.size() - 1);
+        }
+        if (!freeSmallArrays.isEmpty()) {
+            freeSmallArrays.remove(freeSmallArrays.size() - 1);
+        }
+        freeLargeArrays.addAll(inUseLargeArrays);
+        freeSmallArrays.addAll(inUseSmallArrays);
+        inUseLargeArrays.clear();
+        inUseSmallArrays.clear();
+    }
+
+    public String getCacheSizes() {
+        return "cache: " + freeLargeArrays.size() + ", tcache: " + freeSmallArrays.size()
+                + ", allocated: " + inUseLargeArrays.size() + ", tallocated: " + inUseSmallArrays.size();
+    }
+}
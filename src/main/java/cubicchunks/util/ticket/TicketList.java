@@ -24,11 +24,14 @@
 package cubicchunks.util.ticket;
 
 import com.google.common.collect.Lists;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -37,6 +40,22 @@ public class TicketList {
 
     private int tickRefs = 0;
     @Nonnull private List<ITicket> tickets = Lists.newArrayListWithCapacity(1);
+    // the cube this list belongs to, the chunk garbage collector is told when its last ticket is removed
+    @Nullable private final Cube cube;
+
+    /**
+     * Creates a ticket list that doesn't belong to any cube
+     */
+    public TicketList() {
+        this.cube = null;
+    }
+
+    /**
+     * @param cube the cube this ticket list belongs to
+     */
+    public TicketList(Cube cube) {
+        this.cube = cube;
+    }
 
     /**
      * Removes a ticket form this ticket list if present
@@ -44,9 +63,15 @@ public class TicketList {
      * @param ticket the ticket to remove
      */
     public void remove(ITicket ticket) {
-        if (tickets.remove(ticket) && ticket.shouldTick()) {
+        if (!tickets.remove(ticket)) {
+            return;
+        }
+        if (ticket.shouldTick()) {
             tickRefs--;
         }
+        if (tickets.isEmpty() && cube != null && !cube.getCubicWorld().isRemote()) {
+            ((ICubicWorldServer) cube.getCubicWorld()).getChunkGarbageCollector().onLastTicketRemoved(cube);
+        }
     }
 
     /**
@@ -60,6 +85,9 @@ public class TicketList {
         }
         tickets.add(ticket);
         tickRefs += ticket.shouldTick() ? 1 : 0; // keep track of the number of tickets that want to tick
+        if (tickets.size() == 1 && cube != null && !cube.getCubicWorld().isRemote()) {
+            ((ICubicWorldServer) cube.getCubicWorld()).getChunkGarbageCollector().onFirstTicketAdded(cube);
+        }
     }
 
     /**
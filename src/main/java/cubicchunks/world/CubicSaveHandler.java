@@ -79,7 +79,7 @@ public class CubicSaveHandler implements ISaveHandler {
     }
 
     @Override public void flush() {
-        originalHandler.flush();
+        // before the original handler, which waits for the IO thread to write the whole save queue
         CubeProviderServer cache = world.getCubeCache();
         try {
             cache.flush();
@@ -87,6 +87,7 @@ public class CubicSaveHandler implements ISaveHandler {
             // ignore because that's what vanilla does
             CubicChunks.LOGGER.error(e);
         }
+        originalHandler.flush();
     }
 
     @Override public File getWorldDirectory() {
@@ -119,6 +119,15 @@ public interface ICubicWorld extends IMinMaxHeight {
 
     Cube getCubeFromCubeCoords(int cubeX, int cubeY, int cubeZ);
 
+    /**
+     * Drops the cube at the given position from the cache of recently accessed cubes, called when it's unloaded
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     */
+    void invalidateCachedCube(int cubeX, int cubeY, int cubeZ);
+
     Cube getCubeFromBlockCoords(BlockPos pos);
 
     int getEffectiveHeight(int blockX, int blockZ);
@@ -0,0 +1,117 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.column;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Y positions of cubes in a column that are known to be empty, stored as ranges. These cubes don't need to be stored or
+ * read, they can be created without accessing the disk. Most of them are air cubes above the surface, so there are
+ * usually very few ranges.
+ * <p>
+ * Accessed both from the server thread and cube loading threads.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class EmptyCubeIndex {
+
+    // range start -> range end, inclusive
+    private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+
+    public synchronized boolean contains(int cubeY) {
+        Map.Entry<Integer, Integer> range = ranges.floorEntry(cubeY);
+        return range != null && range.getValue() >= cubeY;
+    }
+
+    /**
+     * @return true if the cube wasn't already in this index
+     */
+    public synchronized boolean add(int cubeY) {
+        if (contains(cubeY)) {
+            return false;
+        }
+        int start = cubeY;
+        int end = cubeY;
+        Map.Entry<Integer, Integer> below = ranges.floorEntry(cubeY);
+        if (below != null && below.getValue() == cubeY - 1) {
+            start = below.getKey();
+        }
+        Integer aboveEnd = ranges.remove(cubeY + 1);
+        if (aboveEnd != null) {
+            end = aboveEnd;
+        }
+        ranges.put(start, end);
+        return true;
+    }
+
+    /**
+     * @return true if the cube was in this index
+     */
+    public synchronized boolean remove(int cubeY) {
+        Map.Entry<Integer, Integer> range = ranges.floorEntry(cubeY);
+        if (range == null || range.getValue() < cubeY) {
+            return false;
+        }
+        int start = range.getKey();
+        int end = range.getValue();
+        ranges.remove(start);
+        if (start < cubeY) {
+            ranges.put(start, cubeY - 1);
+        }
+        if (end > cubeY) {
+            ranges.put(cubeY + 1, end);
+        }
+        return true;
+    }
+
+    /**
+     * @return start and end of each range, in order
+     */
+    public synchronized int[] toArray() {
+        int[] data = new int[ranges.size() * 2];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> range : ranges.entrySet()) {
+            data[i++] = range.getKey();
+            data[i++] = range.getValue();
+        }
+        return data;
+    }
+
+    /**
+     * Replaces the contents of this index with ranges written by {@link #toArray()}
+     */
+    public synchronized void readFrom(int[] data) {
+        ranges.clear();
+        for (int i = 0; i + 1 < data.length; i += 2) {
+            if (data[i] <= data[i + 1]) {
+                ranges.put(data[i], data[i + 1]);
+            }
+        }
+    }
+}
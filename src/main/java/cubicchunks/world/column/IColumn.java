@@ -341,6 +341,11 @@ public interface IColumn {
      */
     IHeightMap getOpacityIndex();
 
+    /**
+     * @return the cubes of this column that are known to be empty, and don't need to be saved
+     */
+    EmptyCubeIndex getEmptyCubeIndex();
+
     /**
      * Retrieve all cubes in this column that are currently loaded
      *
@@ -26,11 +26,13 @@ package cubicchunks.world.cube;
 import cubicchunks.CubicChunks;
 import cubicchunks.debug.Dbg;
 import cubicchunks.lighting.LightingManager;
+import cubicchunks.server.chunkio.CubeSectionCache;
 import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XYZAddressable;
 import cubicchunks.util.ticket.TicketList;
 import cubicchunks.world.EntityContainer;
+import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.IHeightMap;
 import cubicchunks.world.column.IColumn;
@@ -91,6 +93,17 @@ public class Cube implements XYZAddressable {
 
     public static final double SIZE_D = 16.0D;
 
+    /**
+     * Block states. Changes to blocks usually also change light, so they should be marked together with {@link #SECTION_LIGHT}
+     */
+    public static final int SECTION_BLOCKS = 1;
+    /**
+     * Block and sky light
+     */
+    public static final int SECTION_LIGHT = 1 << 1;
+    public static final int ALL_SECTIONS = SECTION_BLOCKS | SECTION_LIGHT;
+    private static final int SECTION_COUNT = 2;
+
 
     /**
      * Tickets keep this chunk loaded and ticking. See the docs of {@link TicketList} and {@link
@@ -101,6 +114,15 @@ public class Cube implements XYZAddressable {
      * Has anything within the cube changed since it was loaded from disk?
      */
     private boolean isModified = false;
+    /**
+     * Incremented every time the data of a section changes, indexed by the section's bit in {@link #ALL_SECTIONS}
+     */
+    private final long[] sectionVersions = new long[SECTION_COUNT];
+    /**
+     * Sections encoded by the last save, reused by the next save if they haven't changed since. Dropped when they change
+     * and when the cube is unloaded, see {@link CubeSectionCache} for the memory limit
+     */
+    @Nonnull private final CubeSectionCache savedSections = new CubeSectionCache(SECTION_COUNT);
     /**
      * Has the cube generator's populate() method been called for this cube?
      */
@@ -154,6 +176,11 @@ public class Cube implements XYZAddressable {
      */
     private boolean isCubeLoaded;
 
+    /**
+     * Loaded cubes next to this one, indexed by {@link EnumFacing#ordinal()}, or null where there is no loaded cube
+     */
+    @Nonnull private final Cube[] neighbors = new Cube[EnumFacing.VALUES.length];
+
     /**
      * Contains the current Linear Congruential Generator seed for block updates. Used with an A value of 3 and a C
      * value of 0x3c6ef35f, producing a highly planar series of values ill-suited for choosing random blocks in a
@@ -178,7 +205,7 @@ public class Cube implements XYZAddressable {
         this.column = column;
         this.coords = new CubePos(column.getX(), cubeY, column.getZ());
 
-        this.tickets = new TicketList();
+        this.tickets = new TicketList(this);
 
         this.entities = new EntityContainer();
         this.tileEntityMap = new HashMap<>();
@@ -543,7 +570,7 @@ public class Cube implements XYZAddressable {
     }
 
     @Nullable public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
-        this.isModified = true;
+        this.markDirty(ALL_SECTIONS);
         return this.storage = ebs;
     }
 
@@ -615,6 +642,9 @@ public class Cube implements XYZAddressable {
         //first mark as unloaded so that entity list and tile entity map isn't modified while iterating
         //and it also preserves all entities/time entities so they can be saved
         this.isCubeLoaded = false;
+        // nothing is saved after the unload save, which is encoded later on the IO thread, so don't keep anything for it.
+        // Sections that didn't change since the last save are encoded again, it's cheap compared to keeping them around
+        this.savedSections.close();
 
         // tell the world to forget about entities
         this.world.unloadEntities(this.entities.getEntities());
@@ -654,9 +684,45 @@ public class Cube implements XYZAddressable {
      * Mark this cube as one, who need to be saved to disk
      */
     public void markDirty() {
+        this.markDirty(ALL_SECTIONS);
+    }
+
+    /**
+     * Mark this cube as one, who need to be saved to disk, and the given sections as changed. Entities, tile entities and
+     * scheduled ticks are written on every save, so changes to them only need {@code markDirty(0)}.
+     *
+     * @param sections bitwise or of {@link #SECTION_BLOCKS} and {@link #SECTION_LIGHT}
+     */
+    public void markDirty(int sections) {
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            if ((sections & (1 << i)) != 0) {
+                this.sectionVersions[i]++;
+                // the encoded data of the old version won't be used again
+                this.savedSections.drop(1 << i, this.sectionVersions[i]);
+            }
+        }
         this.isModified = true;
     }
 
+    /**
+     * Returns the current version of a section. The version changes every time the section is marked dirty, so encoded
+     * data of a section can be reused as long as the version hasn't changed.
+     *
+     * @param section one of {@link #SECTION_BLOCKS} and {@link #SECTION_LIGHT}
+     *
+     * @return the current version of the section
+     */
+    public long getSectionVersion(int section) {
+        return this.sectionVersions[Integer.numberOfTrailingZeros(section)];
+    }
+
+    /**
+     * @return the sections encoded when this cube was last saved
+     */
+    public CubeSectionCache getSavedSections() {
+        return this.savedSections;
+    }
+
     /**
      * Retrieve a list of tickets currently holding this cube loaded
      *
@@ -788,6 +854,51 @@ public class Cube implements XYZAddressable {
         return this.isCubeLoaded;
     }
 
+    /**
+     * Returns the loaded cube next to this one in the given direction, without looking it up in the cube provider.
+     *
+     * @param facing the direction of the neighbor
+     *
+     * @return the neighbor, or null if it isn't loaded
+     */
+    @Nullable
+    public Cube getLoadedNeighbor(EnumFacing facing) {
+        return this.neighbors[facing.ordinal()];
+    }
+
+    /**
+     * Links this cube and its loaded neighbors to each other. Called by the cube provider when it starts keeping track
+     * of this cube.
+     *
+     * @param provider the cube provider this cube was added to
+     */
+    public void linkNeighbors(ICubeProvider provider) {
+        for (EnumFacing facing : EnumFacing.VALUES) {
+            Cube neighbor = provider.getLoadedCube(
+                    coords.getX() + facing.getFrontOffsetX(),
+                    coords.getY() + facing.getFrontOffsetY(),
+                    coords.getZ() + facing.getFrontOffsetZ());
+            this.neighbors[facing.ordinal()] = neighbor;
+            if (neighbor != null) {
+                neighbor.neighbors[facing.getOpposite().ordinal()] = this;
+            }
+        }
+    }
+
+    /**
+     * Removes the links between this cube and its neighbors. Called by the cube provider when it stops keeping track of
+     * this cube.
+     */
+    public void unlinkNeighbors() {
+        for (EnumFacing facing : EnumFacing.VALUES) {
+            Cube neighbor = this.neighbors[facing.ordinal()];
+            if (neighbor != null) {
+                neighbor.neighbors[facing.getOpposite().ordinal()] = null;
+                this.neighbors[facing.ordinal()] = null;
+            }
+        }
+    }
+
     public boolean hasLightUpdates() {
         LightingManager.CubeLightUpdateInfo info = this.getCubeLightUpdateInfo();
         return info != null && info.hasUpdates();
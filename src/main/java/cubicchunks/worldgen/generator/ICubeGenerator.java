@@ -61,6 +61,28 @@ public interface ICubeGenerator {
      */
     ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ);
 
+    /**
+     * Whether {@link #generateCube(int, int, int)} can be called from other threads than the server thread, for many
+     * cubes at the same time and while the server thread uses the other methods of this generator. Cubes of generators
+     * that return true are generated in the background ahead of time. All the other methods are only ever called from
+     * the server thread.
+     *
+     * @return true if {@link #generateCube(int, int, int)} is thread safe
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Called on the server thread before {@link #generateCube(int, int, int)} is called from up to {@code threads}
+     * background threads, only for generators that are {@link #isThreadSafe() thread safe}. Anything a generator needs
+     * for each thread and that can only be created on the server thread should be created here.
+     *
+     * @param threads the number of background threads that may generate cubes at the same time
+     */
+    default void prepareThreads(int threads) {
+    }
+
     /**
      * Generate column-global information such as biome data
      *
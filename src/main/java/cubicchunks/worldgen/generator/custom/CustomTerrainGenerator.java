@@ -57,12 +57,15 @@ import net.minecraft.util.math.Vec3i;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraft.world.World;
+import net.minecraft.world.biome.BiomeProvider;
+import net.minecraft.world.biome.BiomeProviderSingle;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.lwjgl.input.Keyboard;
 
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.function.ToIntFunction;
 
 import javax.annotation.Nonnull;
@@ -71,6 +74,14 @@ import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
  * A terrain generator that supports infinite(*) worlds
+ * <p>
+ * The noise and biome caches used by terrain generation are not thread safe, so they live in a {@link GeneratorContext}
+ * that is borrowed for the duration of each {@link #generateCube(int, int, int)} call. Contexts are pure caches over the
+ * same seed and settings, so the generated terrain doesn't depend on which context or thread is used.
+ * <p>
+ * Creating a context creates a biome provider and biome block replacers, which fire Forge events and may initialize
+ * shared biome data. So contexts are only created on the server thread, one in the constructor and one for each
+ * generation thread in {@link #prepareThreads(int)}. Threads wait for a free context instead of creating one.
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
@@ -80,14 +91,16 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
     private static final int CACHE_SIZE_3D = 16 * 16 * 16;
     private static final ToIntFunction<Vec3i> HASH_2D = (v) -> v.getX() + v.getZ() * 5;
     private static final ToIntFunction<Vec3i> HASH_3D = (v) -> v.getX() + v.getZ() * 5 + v.getY() * 25;
-    // Number of octaves for the noise function
-    private IBuilder terrainBuilder;
-    private final BiomeSource biomeSource;
     private final CustomGeneratorSettings conf;
 
+    /** Contexts not currently used by any thread. The most recently used one is at the head, so its caches are warm */
+    @Nonnull private final LinkedBlockingDeque<GeneratorContext> contexts = new LinkedBlockingDeque<>();
+    /** Number of contexts created so far, only accessed from the server thread */
+    private int contextCount;
+    private final long seed;
+
     //TODO: Implement more structures
-    @Nonnull private CubicCaveGenerator caveGenerator = new CubicCaveGenerator();
-    @Nonnull private CubicStructureGenerator ravineGenerator = new CubicRavineGenerator();
+    // stronghold data is shared with population and structure lookups, access to it is synchronized in CubicFeatureGenerator
     @Nonnull private CubicFeatureGenerator strongholds;
 
     public CustomTerrainGenerator(ICubicWorld world, final long seed) {
@@ -96,13 +109,20 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
         String json = world.getWorldInfo().getGeneratorOptions();
         this.conf = CustomGeneratorSettings.fromJson(json);
 
-        this.strongholds = new CubicStrongholdGenerator(conf);
+        CubicStrongholdGenerator strongholds = new CubicStrongholdGenerator(conf);
+        if (conf.strongholds) {
+            // on the server thread, cube generation threads can't use the world's biome provider
+            strongholds.preparePositions(world);
+        }
+        this.strongholds = strongholds;
 
-        this.biomeSource = new BiomeSource(world, conf.createBiomeBlockReplacerConfig(), world.getBiomeProvider(), 2);
-        initGenerator(seed);
+        this.seed = seed;
+        // the context used by the server thread, more are created in prepareThreads
+        this.contexts.push(new GeneratorContext(seed));
+        this.contextCount = 1;
     }
 
-    private void initGenerator(long seed) {
+    private IBuilder createTerrainBuilder(long seed, BiomeSource biomeSource) {
         Random rnd = new Random(seed);
 
         IBuilder selector = NoiseSource.perlin()
@@ -151,16 +171,65 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
                 .mul(conf.heightVariationFactor)
                 .add(conf.heightVariationOffset);
 
-        this.terrainBuilder = selector
+        return selector
                 .lerp(low, high).add(randomHeight2d).mul(volatility).add(height)
                 .sub((x, y, z) -> y)
                 .cached(CACHE_SIZE_3D, HASH_3D);
     }
 
+    /**
+     * Creates the biome provider for a new generator context. Vanilla GenLayers keep state between calls, so each
+     * context gets its own copy of the world's biome provider when it's known how to make an identical one.
+     */
+    private BiomeProvider createBiomeProvider() {
+        BiomeProvider worldBiomeProvider = world.getBiomeProvider();
+        if (worldBiomeProvider.getClass() == BiomeProvider.class) {
+            return new BiomeProvider(world.getWorldInfo());
+        }
+        return worldBiomeProvider;
+    }
+
+    private GeneratorContext acquireContext() {
+        try {
+            return contexts.takeFirst();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a generator context", e);
+        }
+    }
+
+    private void releaseContext(GeneratorContext context) {
+        contexts.push(context);
+    }
+
+    /**
+     * Safe to use from multiple threads when the biome provider can be copied for each generator context,
+     * the terrain itself only depends on the seed and generator settings.
+     */
+    @Override public boolean isThreadSafe() {
+        Class<?> biomeProviderClass = world.getBiomeProvider().getClass();
+        return biomeProviderClass == BiomeProvider.class || biomeProviderClass == BiomeProviderSingle.class;
+    }
+
+    /**
+     * Creates a context for each generation thread, in addition to the one of the server thread.
+     */
+    @Override public void prepareThreads(int threads) {
+        while (contextCount < threads + 1) {
+            contexts.push(new GeneratorContext(seed));
+            contextCount++;
+        }
+    }
+
     @Override public ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ) {
         ICubePrimer primer = new CubePrimer();
-        generate(primer, cubeX, cubeY, cubeZ);
-        generateStructures(primer, new CubePos(cubeX, cubeY, cubeZ));
+        GeneratorContext context = acquireContext();
+        try {
+            generate(context, primer, cubeX, cubeY, cubeZ);
+            generateStructures(context, primer, new CubePos(cubeX, cubeY, cubeZ));
+        } finally {
+            releaseContext(context);
+        }
         return primer;
     }
 
@@ -214,20 +283,30 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
      * @param cubeZ cube z location
      */
     public void generate(final ICubePrimer cubePrimer, int cubeX, int cubeY, int cubeZ) {
+        GeneratorContext context = acquireContext();
+        try {
+            generate(context, cubePrimer, cubeX, cubeY, cubeZ);
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    private void generate(GeneratorContext context, final ICubePrimer cubePrimer, int cubeX, int cubeY, int cubeZ) {
         // when debugging is enabled, allow reloading generator settings after pressing L
         // no need to restart after applying changes.
         // Seed it changed to some constant because world isn't easily accessible here
         if (CubicChunks.DEBUG_ENABLED && FMLCommonHandler.instance().getSide().isClient() && Keyboard.isKeyDown(Keyboard.KEY_L)) {
-            initGenerator(42);
+            context.terrainBuilder = createTerrainBuilder(42, context.biomeSource);
         }
 
+        BiomeSource biomeSource = context.biomeSource;
         BlockPos start = new BlockPos(cubeX * 4, cubeY * 2, cubeZ * 4);
         BlockPos end = start.add(4, 2, 4);
-        terrainBuilder.forEachScaled(start, end, new Vec3i(4, 8, 4),
+        context.terrainBuilder.forEachScaled(start, end, new Vec3i(4, 8, 4),
                 (x, y, z, dx, dy, dz, v) ->
                         cubePrimer.setBlockState(
                                 blockToLocal(x), blockToLocal(y), blockToLocal(z),
-                                getBlock(x, y, z, dx, dy, dz, v))
+                                getBlock(biomeSource, x, y, z, dx, dy, dz, v))
         );
 
     }
@@ -237,7 +316,7 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
      *
      * @return The block state
      */
-    private IBlockState getBlock(int x, int y, int z, double dx, double dy, double dz, double density) {
+    private IBlockState getBlock(BiomeSource biomeSource, int x, int y, int z, double dx, double dy, double dz, double density) {
         List<IBiomeBlockReplacer> replacers = biomeSource.getReplacers(x, y, z);
         IBlockState block = Blocks.AIR.getDefaultState();
         int size = replacers.size();
@@ -247,16 +326,33 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
         return block;
     }
 
-    private void generateStructures(ICubePrimer cube, CubePos cubePos) {
+    private void generateStructures(GeneratorContext context, ICubePrimer cube, CubePos cubePos) {
         // generate world populator
         if (this.conf.caves) {
-            this.caveGenerator.generate(world, cube, cubePos);
+            context.caveGenerator.generate(world, cube, cubePos);
         }
         if (this.conf.ravines) {
-            this.ravineGenerator.generate(world, cube, cubePos);
+            context.ravineGenerator.generate(world, cube, cubePos);
         }
         if (this.conf.strongholds) {
             this.strongholds.generate(world, cube, cubePos);
         }
     }
+
+    /**
+     * Everything generateCube needs that isn't thread safe: noise caches, biome caches, biome block replacers
+     * and the random number generators of cave and ravine generators.
+     */
+    private final class GeneratorContext {
+
+        final BiomeSource biomeSource;
+        IBuilder terrainBuilder;
+        final CubicCaveGenerator caveGenerator = new CubicCaveGenerator();
+        final CubicStructureGenerator ravineGenerator = new CubicRavineGenerator();
+
+        GeneratorContext(long seed) {
+            this.biomeSource = new BiomeSource(world, conf.createBiomeBlockReplacerConfig(), createBiomeProvider(), 2);
+            this.terrainBuilder = createTerrainBuilder(seed, biomeSource);
+        }
+    }
 }
@@ -160,10 +160,12 @@ public class BiomeSource {
     }
 
     private CubicBiome[] generateBiomes(ChunkPos pos) {
+        // skip the vanilla BiomeCache, results are already cached here and the vanilla cache
+        // is only cleaned up for the BiomeProvider owned by the world
         return mapToCubic(biomeGen.getBiomes(null,
                 Coords.cubeToMinBlock(pos.x),
                 Coords.cubeToMinBlock(pos.z),
-                Cube.SIZE, Cube.SIZE));
+                Cube.SIZE, Cube.SIZE, false));
     }
 
     private CubicBiome[] generateBiomeSections(ChunkPos pos) {
@@ -72,8 +72,9 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
 
     public abstract String getStructureName();
 
+    // structure data and rand are shared between cube generation threads and population
     @SuppressWarnings("ConstantConditions")
-    @Override public void generate(ICubicWorld world, @Nullable ICubePrimer cube, CubePos cubePos) {
+    @Override public synchronized void generate(ICubicWorld world, @Nullable ICubePrimer cube, CubePos cubePos) {
         super.generate(world, cube, cubePos);
     }
 
@@ -126,7 +127,7 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
         return generated;
     }
 
-    public boolean isInsideStructure(BlockPos pos) {
+    public synchronized boolean isInsideStructure(BlockPos pos) {
         this.initializeStructureData((World) this.world);
         return this.getStructureAt(pos) != null;
     }
@@ -147,7 +148,7 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
         return null;
     }
 
-    public boolean isPositionInStructure(World world, BlockPos pos) {
+    public synchronized boolean isPositionInStructure(World world, BlockPos pos) {
         this.initializeStructureData(world);
         for (ICubicStructureStart cubicStart : this.structureMap) {
             StructureStart start = (StructureStart) cubicStart;
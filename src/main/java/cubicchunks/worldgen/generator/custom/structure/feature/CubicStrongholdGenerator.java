@@ -33,6 +33,7 @@ import static java.lang.Math.sin;
 import com.google.common.collect.Lists;
 import cubicchunks.util.Coords;
 import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubicWorld;
 import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
@@ -99,7 +100,7 @@ public class CubicStrongholdGenerator extends CubicFeatureGenerator {
         return "Stronghold";
     }
 
-    @Nullable @Override public BlockPos getClosestStrongholdPos(World worldIn, BlockPos pos, boolean findUnexplored) {
+    @Nullable @Override public synchronized BlockPos getClosestStrongholdPos(World worldIn, BlockPos pos, boolean findUnexplored) {
         checkPositionsGenerated();
 
         BlockPos.MutableBlockPos currentBlock = new BlockPos.MutableBlockPos(0, 0, 0);
@@ -138,6 +139,16 @@ public class CubicStrongholdGenerator extends CubicFeatureGenerator {
         return start;
     }
 
+    /**
+     * Finds the stronghold positions now, instead of when the first cube that could contain a stronghold is generated.
+     * Finding them reads biomes from the world's biome provider, which can only be used from the server thread,
+     * so this has to be called before any cube is generated on another thread.
+     */
+    public synchronized void preparePositions(ICubicWorld world) {
+        this.world = world;
+        checkPositionsGenerated();
+    }
+
     private void checkPositionsGenerated() {
         if (!this.positionsGenerated) {
             this.generatePositions();
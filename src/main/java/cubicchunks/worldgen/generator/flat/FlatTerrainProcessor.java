@@ -90,6 +90,12 @@ public class FlatTerrainProcessor extends BasicCubeGenerator {
         return primer;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        // the layers are never modified after loading the settings
+        return true;
+    }
+
     @Override
     public void populate(Cube cube) {
         /**
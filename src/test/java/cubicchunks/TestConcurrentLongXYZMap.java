@@ -0,0 +1,131 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import cubicchunks.util.ConcurrentLongXYZMap;
+import cubicchunks.util.XYZAddressable;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestConcurrentLongXYZMap {
+
+    /**
+     * One thread keeps adding and removing entries, growing the map several times, while other threads look up entries
+     * that are never removed and entries that are never added.
+     */
+    @Test
+    public void testReadWhileModifying() throws Exception {
+        ConcurrentLongXYZMap<XYZAddressable> map = new ConcurrentLongXYZMap<>(0.75f, 16);
+        List<Addressable> permanent = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Addressable value = new Addressable(i % 10, i / 100, (i / 10) % 10);
+            permanent.add(value);
+            map.put(value);
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int thread = 0; thread < 3; thread++) {
+                int seed = thread;
+                readers.add(executor.submit(() -> {
+                    Random rand = new Random(seed);
+                    while (!done.get()) {
+                        Addressable value = permanent.get(rand.nextInt(permanent.size()));
+                        assertSame(value, map.get(value.getX(), value.getY(), value.getZ()));
+                        // negative y is never added
+                        assertNull(map.get(rand.nextInt(100), -1 - rand.nextInt(100), rand.nextInt(100)));
+                    }
+                    return null;
+                }));
+            }
+
+            Random rand = new Random(42);
+            List<Addressable> temporary = new ArrayList<>();
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 5000; i++) {
+                    Addressable value = new Addressable(20 + rand.nextInt(100), rand.nextInt(100), rand.nextInt(100));
+                    if (map.put(value) == null) {
+                        temporary.add(value);
+                    }
+                }
+                for (Addressable value : temporary) {
+                    map.remove(value);
+                }
+                temporary.clear();
+            }
+            done.set(true);
+            for (Future<?> reader : readers) {
+                reader.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+        assertEquals(permanent.size(), map.getSize());
+    }
+
+    private static class Addressable implements XYZAddressable {
+
+        private final int x;
+        private final int y;
+        private final int z;
+
+        Addressable(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.util.LongXYZMap;
+import cubicchunks.util.XYZAddressable;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestLongXYZMap {
+
+    @Test
+    public void testSimpleGetEqual() {
+        XYZAddressable value = new Addressable(0, 0, 0);
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        map.put(value);
+        assertSame(value, map.get(0, 0, 0));
+    }
+
+    @Test
+    public void testGetEqualRandomPositionsReplace() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        Addressable[] values = new Addressable[500];
+        for (int attempt = 0; attempt < 2; attempt++) {
+            //set seed so that tests are predictable
+            Random rand = new Random(42);
+            for (int i = 0; i < values.length; i++) {
+                Addressable old = values[i];
+                values[i] = randomAddressable(rand);
+                assertSame(old, map.put(values[i]));
+                //test all previous values
+                for (int j = 0; j <= i; j++) {
+                    Addressable exp = values[j];
+                    assertSame(exp, map.get(exp.getX(), exp.getY(), exp.getZ()));
+                }
+            }
+        }
+        assertEquals(values.length, map.getSize());
+    }
+
+    @Test
+    public void testGetUnique() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        map.put(new Addressable(0, 0, 0));
+        for (int x = -20; x < 20; x++) {
+            for (int y = -20; y < 20; y++) {
+                for (int z = -20; z < 20; z++) {
+                    if (x != 0 || y != 0 || z != 0) {
+                        assertNull(map.get(x, y, z));
+                        assertFalse(map.contains(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOutOfPackedRange() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        // would have the same packed key as (0, 0, 0) if the coordinates were truncated
+        Addressable far = new Addressable(1 << 22, 1 << 20, -(1 << 22));
+        Addressable near = new Addressable(0, 0, 0);
+        Addressable extreme = new Addressable(Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE);
+        map.put(far);
+        map.put(near);
+        map.put(extreme);
+        assertEquals(3, map.getSize());
+        assertSame(far, map.get(1 << 22, 1 << 20, -(1 << 22)));
+        assertSame(near, map.get(0, 0, 0));
+        assertSame(extreme, map.get(Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE));
+
+        Set<XYZAddressable> iterated = new HashSet<>();
+        map.forEach(iterated::add);
+        assertEquals(3, iterated.size());
+
+        assertSame(far, map.remove(far));
+        assertNull(map.get(1 << 22, 1 << 20, -(1 << 22)));
+        assertSame(near, map.get(0, 0, 0));
+    }
+
+    @Test
+    public void testIterator() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        Set<XYZAddressable> allElements = new HashSet<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            Addressable newElement = randomAddressable(rand);
+            map.put(newElement);
+            allElements.add(newElement);
+        }
+        for (XYZAddressable element : map) {
+            assertThat(allElements, hasItem(element));
+            allElements.remove(element);
+        }
+        assertThat(allElements, empty());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random rand = new Random(42);
+        for (int attempt = 0; attempt < 100; attempt++) {
+            // small coordinates and a high load factor make long clusters, which wrap around the end of the table
+            LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.95f, 4);
+            Set<XYZAddressable> allElements = new HashSet<>();
+            for (int i = 0; i < 250; i++) {
+                Addressable newElement = new Addressable(rand.nextInt(16), rand.nextInt(16), rand.nextInt(16));
+                allElements.remove(map.put(newElement));
+                allElements.add(newElement);
+            }
+            Set<XYZAddressable> seen = new HashSet<>();
+            Iterator<XYZAddressable> it = map.iterator();
+            while (it.hasNext()) {
+                XYZAddressable element = it.next();
+                assertTrue("Element returned twice: " + element, seen.add(element));
+                if (rand.nextBoolean()) {
+                    it.remove();
+                    allElements.remove(element);
+                }
+            }
+            assertEquals(allElements.size(), map.getSize());
+            for (XYZAddressable element : allElements) {
+                assertTrue(seen.contains(element));
+                assertSame(element, map.get(element.getX(), element.getY(), element.getZ()));
+            }
+        }
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testIteratorFailsAfterGrow() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 4);
+        map.put(new Addressable(0, 0, 0));
+        Iterator<XYZAddressable> it = map.iterator();
+        for (int i = 1; i < 100; i++) {
+            map.put(new Addressable(i, 0, 0));
+        }
+        it.next();
+    }
+
+    @Test
+    public void testRandomWrappedIterator() {
+        LongXYZMap<XYZAddressable> map = new LongXYZMap<>(0.75f, 10);
+        Random rand = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            map.put(randomAddressable(rand));
+        }
+        for (int seed = 0; seed < 20; seed++) {
+            Set<XYZAddressable> seen = new HashSet<>();
+            Iterator<XYZAddressable> it = map.randomWrappedIterator(rand.nextInt());
+            while (it.hasNext()) {
+                assertTrue(seen.add(it.next()));
+            }
+            assertEquals(map.getSize(), seen.size());
+        }
+    }
+
+    private static Addressable randomAddressable(Random rand) {
+        return new Addressable(rand.nextInt(4000000) - 2000000, rand.nextInt(1000000) - 500000, rand.nextInt(4000000) - 2000000);
+    }
+
+    /**
+     * Simple implementation of Addressable for testing, equal only if it's the same object
+     */
+    private static class Addressable implements XYZAddressable {
+
+        private final int x;
+        private final int y;
+        private final int z;
+
+        Addressable(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override public int getX() {
+            return x;
+        }
+
+        @Override public int getY() {
+            return y;
+        }
+
+        @Override public int getZ() {
+            return z;
+        }
+
+        @Override public String toString() {
+            return "(" + x + ", " + y + ", " + z + ")";
+        }
+    }
+}
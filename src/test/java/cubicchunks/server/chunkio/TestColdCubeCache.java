@@ -0,0 +1,70 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.util.CubePos;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Test;
+
+public class TestColdCubeCache {
+
+    @Test
+    public void testEntriesAreTakenOnce() {
+        ColdCubeCache cache = new ColdCubeCache();
+        cache.putCube(new CubePos(1, 2, 3), new NBTTagCompound(), null, Long.MAX_VALUE);
+        cache.putColumn(new ChunkPos(1, 3), new NBTTagCompound(), Long.MAX_VALUE);
+
+        assertTrue(cache.containsCube(new CubePos(1, 2, 3)));
+        assertNotNull(cache.takeCube(new CubePos(1, 2, 3)));
+        assertNull(cache.takeCube(new CubePos(1, 2, 3)));
+        assertNotNull(cache.takeColumn(new ChunkPos(1, 3)));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ColdCubeCache cache = new ColdCubeCache();
+        cache.putColumn(new ChunkPos(0, 0), new NBTTagCompound(), Long.MAX_VALUE);
+        long entrySize = cache.getSizeBytes();
+        cache.putColumn(new ChunkPos(0, 1), new NBTTagCompound(), entrySize * 2);
+        // the cache can hold 2 entries, the oldest one is dropped
+        cache.putColumn(new ChunkPos(0, 2), new NBTTagCompound(), entrySize * 2);
+
+        assertEquals(entrySize * 2, cache.getSizeBytes());
+        assertNull(cache.takeColumn(new ChunkPos(0, 0)));
+        assertNotNull(cache.takeColumn(new ChunkPos(0, 1)));
+        assertNotNull(cache.takeColumn(new ChunkPos(0, 2)));
+        assertFalse(cache.containsCube(new CubePos(0, 0, 0)));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class TestCompressionCodecs {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ICompressionCodec[] codecs = {
+                CompressionCodecs.GZIP, CompressionCodecs.NONE, CompressionCodecs.LZ4,
+                CompressionCodecs.deflate(0), CompressionCodecs.deflate(1), CompressionCodecs.deflate(9)
+        };
+        Random rand = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = randomData(rand, i < 50 ? rand.nextInt(40) : rand.nextInt(70000));
+            for (ICompressionCodec codec : codecs) {
+                byte[] entry = codec.compress(data);
+                assertEquals(codec.getHeader(), entry[0]);
+                assertArrayEquals(codec.getClass().getSimpleName() + ", size=" + data.length, data, CompressionCodecs.decompress(entry));
+            }
+        }
+    }
+
+    @Test
+    public void testReadsOldGzipEntries() throws IOException {
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setIntArray("test", new int[]{1, 2, 3});
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        CompressedStreamTools.writeCompressed(nbt, buf);
+        byte[] entry = buf.toByteArray();
+
+        assertSame(CompressionCodecs.GZIP, CompressionCodecs.forEntry(entry));
+        assertArrayEquals(IONbtWriter.writeUncompressedNbtBytes(nbt), CompressionCodecs.decompress(entry));
+    }
+
+    private static byte[] randomData(Random rand, int size) {
+        byte[] data = new byte[size];
+        switch (rand.nextInt(3)) {
+            case 0: // incompressible
+                rand.nextBytes(data);
+                break;
+            case 1: // long runs, like light arrays
+                for (int i = 0; i < size; i++) {
+                    data[i] = (byte) (i / 100);
+                }
+                break;
+            default: // few distinct values, like block ids
+                for (int i = 0; i < size; i++) {
+                    data[i] = (byte) rand.nextInt(4);
+                }
+                break;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.cube.Cube;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class TestCubeBinaryCodec {
+
+    private static final int BLOCK_COUNT = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testPackUnpack() {
+        Random rand = new Random(42);
+        for (int bits = 1; bits <= 12; bits++) {
+            int[] values = new int[BLOCK_COUNT];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = rand.nextInt(1 << bits);
+            }
+            assertArrayEquals("bits=" + bits, values, CubeBinaryCodec.unpack(CubeBinaryCodec.pack(values, bits), bits, values.length));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        testRoundTrip(snapshot -> CubeBinaryCodec.encode(snapshot, 0, new NBTTagCompound()));
+    }
+
+    @Test
+    public void testSectionedRoundTrip() throws IOException {
+        for (ICompressionCodec codec : new ICompressionCodec[]{CompressionCodecs.NONE, CompressionCodecs.LZ4, CompressionCodecs.GZIP}) {
+            testRoundTrip(snapshot -> CubeBinaryCodec.encodeSectioned(snapshot, 0, new NBTTagCompound(), codec));
+        }
+    }
+
+    @Test
+    public void testSectionCacheKeepsNewestVersion() {
+        CubeSectionCache cache = new CubeSectionCache(2);
+        byte[] v1 = {1};
+        byte[] v2 = {2};
+        cache.put(Cube.SECTION_LIGHT, 2, v2);
+        cache.put(Cube.SECTION_LIGHT, 1, v1);
+        assertNull(cache.get(Cube.SECTION_LIGHT, 1));
+        assertArrayEquals(v2, cache.get(Cube.SECTION_LIGHT, 2));
+        assertNull(cache.get(Cube.SECTION_BLOCKS, 0));
+    }
+
+    @Test
+    public void testSectionCacheDropsChangedSections() {
+        CubeSectionCache cache = new CubeSectionCache(2);
+        long totalBefore = CubeSectionCache.getTotalBytes();
+        cache.put(Cube.SECTION_BLOCKS, 1, new byte[100]);
+        assertEquals(totalBefore + 100, CubeSectionCache.getTotalBytes());
+
+        // the section changed while version 1 was still being encoded by another save
+        cache.drop(Cube.SECTION_BLOCKS, 2);
+        cache.put(Cube.SECTION_BLOCKS, 1, new byte[100]);
+        assertNull(cache.get(Cube.SECTION_BLOCKS, 1));
+        assertEquals(totalBefore, CubeSectionCache.getTotalBytes());
+
+        cache.close();
+        cache.put(Cube.SECTION_BLOCKS, 2, new byte[100]);
+        assertNull(cache.get(Cube.SECTION_BLOCKS, 2));
+        assertEquals(totalBefore, CubeSectionCache.getTotalBytes());
+    }
+
+    private void testRoundTrip(Encoder encoder) throws IOException {
+        Random rand = new Random(42);
+        IBlockState[] palette = {
+                Blocks.AIR.getDefaultState(), Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState(), Blocks.GRASS.getDefaultState()
+        };
+        IBlockState[] blocks = new IBlockState[BLOCK_COUNT];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = palette[rand.nextInt(palette.length)];
+        }
+        byte[] blockLight = new byte[BLOCK_COUNT / 2];
+        rand.nextBytes(blockLight);
+        byte[] skyLight = new byte[BLOCK_COUNT / 2];
+        int[] heightMap = new int[Cube.SIZE * Cube.SIZE];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = rand.nextInt();
+        }
+        NBTTagCompound level = new NBTTagCompound();
+        level.setTag("Entities", new NBTTagList());
+
+        CubeSnapshot snapshot = new CubeSnapshot(1, -2, 3, true, false, true, false, blocks, blockLight, skyLight, heightMap, (byte) 5, level);
+        CubeBinaryCodec.DecodedCube decoded = CubeBinaryCodec.decode(encoder.encode(snapshot), true);
+
+        ExtendedBlockStorage ebs = decoded.storage;
+        assertTrue(ebs != null);
+        for (int i = 0; i < blocks.length; i++) {
+            assertEquals(blocks[i], ebs.get(i & 15, i >> 8 & 15, i >> 4 & 15));
+        }
+        assertArrayEquals(blockLight, ebs.getBlockLight().getData());
+        assertArrayEquals(skyLight, ebs.getSkyLight().getData());
+
+        NBTTagCompound decodedLevel = decoded.nbt.getCompoundTag("Level");
+        assertEquals(-2, decodedLevel.getInteger("y"));
+        assertTrue(decodedLevel.getBoolean("populated"));
+        assertTrue(!decodedLevel.getBoolean("isSurfaceTracked"));
+        assertTrue(decodedLevel.hasKey("Entities"));
+        assertArrayEquals(heightMap, decodedLevel.getCompoundTag("LightingInfo").getIntArray("LastHeightMap"));
+        assertEquals(5, decodedLevel.getCompoundTag("LightingInfo").getByte("EdgeNeedSkyLightUpdate"));
+    }
+
+    @Test
+    public void testEmptyCube() throws IOException {
+        CubeSnapshot snapshot = new CubeSnapshot(0, 0, 0, false, false, false, false, null, null, null,
+                new int[Cube.SIZE * Cube.SIZE], (byte) 0, new NBTTagCompound());
+        assertNull(CubeBinaryCodec.decode(CubeBinaryCodec.encode(snapshot, 0, new NBTTagCompound()), true).storage);
+    }
+
+    @Test
+    public void testSectionedEmptyCube() throws IOException {
+        CubeSnapshot snapshot = new CubeSnapshot(0, 0, 0, false, false, false, false, null, null, null,
+                new int[Cube.SIZE * Cube.SIZE], (byte) 0, new NBTTagCompound());
+        byte[] data = CubeBinaryCodec.encodeSectioned(snapshot, 0, new NBTTagCompound(), CompressionCodecs.LZ4);
+        assertTrue(CubeBinaryCodec.isSectioned(data));
+        assertNull(CubeBinaryCodec.decode(data, true).storage);
+    }
+
+    @FunctionalInterface
+    private interface Encoder {
+
+        byte[] encode(CubeSnapshot snapshot) throws IOException;
+    }
+}
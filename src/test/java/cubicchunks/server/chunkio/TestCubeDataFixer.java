@@ -0,0 +1,62 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraftforge.common.util.CompoundDataFixer;
+import org.junit.Test;
+
+public class TestCubeDataFixer {
+
+    @Test
+    public void testVanillaVersion() {
+        DataFixer fixer = new DataFixer(1343);
+        NBTTagCompound nbt = new NBTTagCompound();
+        assertFalse(CubeDataFixer.isUpToDate(fixer, nbt));
+        nbt.setInteger("DataVersion", 1139);
+        assertFalse(CubeDataFixer.isUpToDate(fixer, nbt));
+        nbt.setInteger("DataVersion", 1343);
+        assertTrue(CubeDataFixer.isUpToDate(fixer, nbt));
+        assertSame(nbt, CubeDataFixer.process(fixer, nbt));
+    }
+
+    @Test
+    public void testModVersions() {
+        CompoundDataFixer fixer = new CompoundDataFixer(new DataFixer(1343));
+        fixer.init("testmod", 2);
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setInteger("DataVersion", 1343);
+        fixer.writeVersionData(nbt);
+        assertTrue(CubeDataFixer.isUpToDate(fixer, nbt));
+
+        // data written before another mod with data fixers was added
+        fixer.init("othermod", 1);
+        assertFalse(CubeDataFixer.isUpToDate(fixer, nbt));
+    }
+}
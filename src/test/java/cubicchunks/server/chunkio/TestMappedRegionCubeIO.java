@@ -0,0 +1,141 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import cubicchunks.world.ICubicWorldServer;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.storage.ISaveHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Checks that the memory mapped reads of {@link MappedRegionCubeIO} find the same entries RegionLib writes, without
+ * falling back to RegionLib.
+ */
+public class TestMappedRegionCubeIO {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testReadsWhatRegionLibWrites() throws IOException {
+        Path path = folder.getRoot().toPath();
+        byte[] column = entry(100);
+        byte[] smallCube = entry(100);
+        // several 512 byte sectors
+        byte[] largeCube = entry(5000);
+        try (SaveCubeColumns save = SaveCubeColumns.create(path)) {
+            save.save2d(new EntryLocation2D(1, -2), ByteBuffer.wrap(column));
+            save.save3d(new EntryLocation3D(0, 0, 0), ByteBuffer.wrap(smallCube));
+            save.save3d(new EntryLocation3D(1, 2, 3), ByteBuffer.wrap(largeCube));
+        }
+
+        MappedRegionCache columnRegions = new MappedRegionCache(path.resolve("region2d"), 1);
+        MappedRegionCache cubeRegions = new MappedRegionCache(path.resolve("region3d"), 1);
+        assertMapped(column, columnRegions, new EntryLocation2D(1, -2));
+        assertMapped(smallCube, cubeRegions, new EntryLocation3D(0, 0, 0));
+        assertMapped(largeCube, cubeRegions, new EntryLocation3D(1, 2, 3));
+        // absent entries, in an existing region and in a region without a file
+        assertNull(cubeRegions.read(new EntryLocation3D(2, 0, 0)));
+        assertNull(cubeRegions.read(new EntryLocation3D(1000, 0, 1000)));
+        assertNull(columnRegions.read(new EntryLocation2D(1000, 1000)));
+
+        MappedRegionCubeIO io = new MappedRegionCubeIO(createWorld());
+        assertArrayEquals(column, toArray(io.readColumnEntry(new EntryLocation2D(1, -2))));
+        assertArrayEquals(smallCube, toArray(io.readCubeEntry(new EntryLocation3D(0, 0, 0))));
+        assertArrayEquals(largeCube, toArray(io.readCubeEntry(new EntryLocation3D(1, 2, 3))));
+        assertFalse(io.readCubeEntry(new EntryLocation3D(2, 0, 0)).isPresent());
+        assertFalse(io.readCubeEntry(new EntryLocation3D(1000, 0, 1000)).isPresent());
+        assertFalse(io.readColumnEntry(new EntryLocation2D(1000, 1000)).isPresent());
+    }
+
+    @Test
+    public void testReadsEntriesWrittenAfterMapping() throws IOException {
+        Path path = folder.getRoot().toPath();
+        EntryLocation3D pos = new EntryLocation3D(0, 0, 0);
+        try (SaveCubeColumns save = SaveCubeColumns.create(path)) {
+            save.save3d(pos, ByteBuffer.wrap(entry(100)));
+        }
+        MappedRegionCache cubeRegions = new MappedRegionCache(path.resolve("region3d"), 1);
+        assertNotNull(cubeRegions.read(pos));
+
+        // the entry no longer fits in its sectors, and the file grows past the mapping
+        byte[] larger = entry(20000);
+        byte[] added = entry(3000);
+        try (SaveCubeColumns save = SaveCubeColumns.create(path)) {
+            save.save3d(pos, ByteBuffer.wrap(larger));
+            save.save3d(new EntryLocation3D(1, 0, 0), ByteBuffer.wrap(added));
+        }
+        assertMapped(larger, cubeRegions, pos);
+        assertMapped(added, cubeRegions, new EntryLocation3D(1, 0, 0));
+    }
+
+    private static void assertMapped(byte[] expected, MappedRegionCache regions, IKey<?> pos) throws IOException {
+        ByteBuffer entry = regions.read(pos);
+        assertNotNull("Entry " + pos + " not found in the mapping", entry);
+        assertArrayEquals(expected, CompressionCodecs.toArray(entry));
+    }
+
+    /**
+     * @return a valid, uncompressed entry of about the given size
+     */
+    private byte[] entry(int size) throws IOException {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return CompressionCodecs.NONE.compress(data);
+    }
+
+    private static byte[] toArray(Optional<ByteBuffer> entry) {
+        return CompressionCodecs.toArray(entry.get());
+    }
+
+    private ICubicWorldServer createWorld() {
+        ISaveHandler saveHandler = mock(ISaveHandler.class);
+        when(saveHandler.getWorldDirectory()).thenReturn(folder.getRoot());
+        ICubicWorldServer world = mock(ICubicWorldServer.class);
+        when(world.getProvider()).thenReturn(mock(WorldProvider.class));
+        when(world.getSaveHandler()).thenReturn(saveHandler);
+        return world;
+    }
+}
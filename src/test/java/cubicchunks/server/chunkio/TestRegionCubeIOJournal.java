@@ -0,0 +1,119 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubicWorldServer;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.storage.ISaveHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestRegionCubeIOJournal {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private boolean journalWasEnabled;
+
+    @Before
+    public void setUp() {
+        journalWasEnabled = CubicChunks.Config.BoolOptions.USE_SAVE_JOURNAL.getValue();
+        if (!journalWasEnabled) {
+            CubicChunks.Config.BoolOptions.USE_SAVE_JOURNAL.flip();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (CubicChunks.Config.BoolOptions.USE_SAVE_JOURNAL.getValue() != journalWasEnabled) {
+            CubicChunks.Config.BoolOptions.USE_SAVE_JOURNAL.flip();
+        }
+    }
+
+    @Test
+    public void testJournalWrittenAtShutdownIsKept() throws IOException {
+        SaveJournal journal = new SaveJournal(folder.getRoot().toPath());
+        try (SaveJournal.Writer writer = journal.create()) {
+            writer.writeColumn(new ChunkPos(1, -2), new byte[100]);
+            writer.writeCube(new CubePos(3, -4, 5), new byte[]{1, 2, 3});
+            writer.commit();
+        }
+
+        MinecraftServer server = mock(MinecraftServer.class);
+        when(server.isServerRunning()).thenReturn(false);
+        RegionCubeIO io = new RegionCubeIO(createWorld(server)) {
+            @Override protected void queueIO() {
+                // writeNextIO is called by the test, as the IO thread would
+            }
+        };
+        // the server stops before anything recovered from the journal is written
+        io.flush();
+        assertTrue(journal.exists());
+
+        // the IO thread still has this cube IO queued from the journal recovery
+        assertFalse(io.writeNextIO());
+        assertTrue(journal.exists());
+
+        List<Object> read = new ArrayList<>();
+        journal.read(new SaveJournal.RecordConsumer() {
+            @Override public void column(ChunkPos pos, byte[] data) {
+                read.add(pos);
+            }
+
+            @Override public void cube(CubePos pos, byte[] data) {
+                read.add(pos);
+            }
+        });
+        assertEquals(2, read.size());
+        assertTrue(read.contains(new ChunkPos(1, -2)));
+        assertTrue(read.contains(new CubePos(3, -4, 5)));
+    }
+
+    private ICubicWorldServer createWorld(MinecraftServer server) {
+        ISaveHandler saveHandler = mock(ISaveHandler.class);
+        when(saveHandler.getWorldDirectory()).thenReturn(folder.getRoot());
+        ICubicWorldServer world = mock(ICubicWorldServer.class);
+        when(world.getProvider()).thenReturn(mock(WorldProvider.class));
+        when(world.getSaveHandler()).thenReturn(saveHandler);
+        when(world.getMinecraftServer()).thenReturn(server);
+        return world;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.util.CubePos;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestSaveJournal {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        SaveJournal journal = new SaveJournal(folder.getRoot().toPath());
+        assertFalse(journal.exists());
+        writeJournal(journal);
+        assertTrue(journal.exists());
+
+        List<Object> read = readJournal(journal);
+        assertEquals(3, read.size());
+        assertEquals(new ChunkPos(1, -2), read.get(0));
+        assertEquals(new CubePos(3, -4, 5), read.get(1));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) read.get(2));
+
+        journal.delete();
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    public void testUncommittedJournalIsDiscarded() throws IOException {
+        SaveJournal journal = new SaveJournal(folder.getRoot().toPath());
+        try (SaveJournal.Writer writer = journal.create()) {
+            writer.writeColumn(new ChunkPos(0, 0), new byte[16]);
+        }
+        assertFalse(journal.exists());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testTruncatedJournal() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        SaveJournal journal = new SaveJournal(dir);
+        writeJournal(journal);
+        try (FileChannel channel = FileChannel.open(dir.resolve(SaveJournal.FILE_NAME), StandardOpenOption.WRITE)) {
+            // cut off the checksum of the last record
+            channel.truncate(channel.size() - 2);
+        }
+        List<Object> read = readJournal(journal);
+        assertEquals(1, read.size());
+        assertEquals(new ChunkPos(1, -2), read.get(0));
+    }
+
+    private static void writeJournal(SaveJournal journal) throws IOException {
+        try (SaveJournal.Writer writer = journal.create()) {
+            writer.writeColumn(new ChunkPos(1, -2), new byte[100]);
+            writer.writeCube(new CubePos(3, -4, 5), new byte[]{1, 2, 3});
+            writer.commit();
+        }
+    }
+
+    private static List<Object> readJournal(SaveJournal journal) throws IOException {
+        List<Object> read = new ArrayList<>();
+        journal.read(new SaveJournal.RecordConsumer() {
+            @Override public void column(ChunkPos pos, byte[] data) {
+                read.add(pos);
+            }
+
+            @Override public void cube(CubePos pos, byte[] data) {
+                read.add(pos);
+                read.add(data);
+            }
+        });
+        return read;
+    }
+}
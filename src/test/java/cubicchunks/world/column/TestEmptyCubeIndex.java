@@ -0,0 +1,79 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.column;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestEmptyCubeIndex {
+
+    @Test
+    public void testMergesRanges() {
+        EmptyCubeIndex index = new EmptyCubeIndex();
+        assertTrue(index.add(5));
+        assertTrue(index.add(7));
+        assertFalse(index.add(7));
+        assertArrayEquals(new int[]{5, 5, 7, 7}, index.toArray());
+        assertTrue(index.add(6));
+        assertArrayEquals(new int[]{5, 7}, index.toArray());
+
+        assertTrue(index.remove(6));
+        assertFalse(index.remove(6));
+        assertArrayEquals(new int[]{5, 5, 7, 7}, index.toArray());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        EmptyCubeIndex index = new EmptyCubeIndex();
+        Set<Integer> expected = new HashSet<>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int y = rand.nextInt(64) - 32;
+            if (rand.nextBoolean()) {
+                assertEquals(expected.add(y), index.add(y));
+            } else {
+                assertEquals(expected.remove(y), index.remove(y));
+            }
+        }
+        EmptyCubeIndex read = new EmptyCubeIndex();
+        read.readFrom(index.toArray());
+        for (int y = -40; y < 40; y++) {
+            assertEquals(expected.contains(y), index.contains(y));
+            assertEquals(expected.contains(y), read.contains(y));
+        }
+    }
+}
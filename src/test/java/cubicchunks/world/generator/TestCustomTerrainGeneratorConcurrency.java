@@ -0,0 +1,154 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.generator;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cubicchunks.api.worldgen.biome.CubicBiome;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.generator.ICubePrimer;
+import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
+import cubicchunks.worldgen.generator.custom.CustomTerrainGenerator;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.GameType;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.biome.BiomeProvider;
+import net.minecraft.world.storage.WorldInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+// run with mixins applied, vanilla IntCache isn't usable from multiple threads
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCustomTerrainGeneratorConcurrency {
+
+    private static final long SEED = 123456789L;
+    private static final int THREADS = 4;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+        if (CubicBiome.REGISTRY == null) {
+            CubicBiome.init();
+        }
+        CubicBiome.postInit();
+    }
+
+    @Test
+    public void testParallelGenerationMatchesSerial() throws Exception {
+        CustomTerrainGenerator parallelGenerator = createGenerator();
+        assertTrue(parallelGenerator.isThreadSafe());
+        parallelGenerator.prepareThreads(THREADS);
+        checkParallelGeneration(parallelGenerator);
+    }
+
+    @Test
+    public void testThreadsWaitForFreeContext() throws Exception {
+        // only the context created in the constructor, all threads share it one at a time
+        checkParallelGeneration(createGenerator());
+    }
+
+    private void checkParallelGeneration(CustomTerrainGenerator parallelGenerator) throws Exception {
+        List<CubePos> cubes = new ArrayList<>();
+        for (int x = -3; x <= 3; x++) {
+            for (int y = -2; y <= 3; y++) {
+                for (int z = -3; z <= 3; z++) {
+                    cubes.add(new CubePos(x, y, z));
+                }
+            }
+        }
+
+        CustomTerrainGenerator serialGenerator = createGenerator();
+        Map<CubePos, ICubePrimer> serial = new HashMap<>();
+        for (CubePos pos : cubes) {
+            serial.put(pos, serialGenerator.generateCube(pos.getX(), pos.getY(), pos.getZ()));
+        }
+
+        // different order, so that threads don't just follow the serial cache access pattern
+        List<CubePos> shuffled = new ArrayList<>(cubes);
+        Collections.shuffle(shuffled, new Random(42));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            Map<CubePos, Future<ICubePrimer>> parallel = new HashMap<>();
+            for (CubePos pos : shuffled) {
+                parallel.put(pos, executor.submit(() -> parallelGenerator.generateCube(pos.getX(), pos.getY(), pos.getZ())));
+            }
+            for (CubePos pos : cubes) {
+                assertSameBlocks(pos, serial.get(pos), parallel.get(pos).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertSameBlocks(CubePos pos, ICubePrimer expected, ICubePrimer actual) {
+        for (int x = 0; x < Cube.SIZE; x++) {
+            for (int y = 0; y < Cube.SIZE; y++) {
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    assertSame("Block " + x + ", " + y + ", " + z + " in cube " + pos,
+                            expected.getBlockState(x, y, z), actual.getBlockState(x, y, z));
+                }
+            }
+        }
+    }
+
+    private static CustomTerrainGenerator createGenerator() {
+        CustomGeneratorSettings settings = CustomGeneratorSettings.defaults();
+        // strongholds need a real World for structure data
+        settings.strongholds = false;
+
+        WorldSettings worldSettings = new WorldSettings(SEED, GameType.SURVIVAL, true, false, WorldType.DEFAULT);
+        worldSettings.setGeneratorOptions(settings.toJson());
+        WorldInfo worldInfo = new WorldInfo(worldSettings, "test");
+
+        ICubicWorld world = mock(ICubicWorld.class);
+        when(world.getWorldInfo()).thenReturn(worldInfo);
+        when(world.getSeed()).thenReturn(SEED);
+        when(world.getBiomeProvider()).thenReturn(new BiomeProvider(worldInfo));
+        return new CustomTerrainGenerator(world, SEED);
+    }
+}